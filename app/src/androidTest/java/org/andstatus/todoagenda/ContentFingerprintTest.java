@@ -0,0 +1,56 @@
+package org.andstatus.todoagenda;
+
+import org.andstatus.todoagenda.calendar.CalendarEvent;
+import org.andstatus.todoagenda.util.DateUtil;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import static org.andstatus.todoagenda.RemoteViewsFactory.MIN_MILLIS_BETWEEN_RELOADS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContentFingerprintTest extends BaseWidgetTest {
+
+    @Test
+    public void testUnchangedReloadIsNotPublished() {
+        DateTime today = DateUtil.now(provider.getSettings().getTimeZone()).withTimeAtStartOfDay();
+        DateUtil.setNow(today.plusHours(10));
+        CalendarEvent event = new CalendarEvent(provider.getContext(), provider.getWidgetId(),
+                provider.getSettings().getTimeZone(), false);
+        event.setEventSource(provider.getFirstActiveEventSource());
+        event.setEventId(1);
+        event.setTitle("Event, which is reloaded");
+        event.setStartDate(today.plusHours(12));
+        event.setEndDate(today.plusHours(13));
+        event.setColor(0xFF92E1C0);
+
+        setEvent(event);
+        factory.onDataSetChanged();
+        long changesCount = factory.getPublishedChangesCount();
+
+        setEvent(event);
+        assertFalse("Same content", factory.reloadIfChanged());
+        assertEquals(changesCount, factory.getPublishedChangesCount());
+
+        event.setColor(0xFF000000);
+        setEvent(event);
+        assertTrue("Color changed", factory.reloadIfChanged());
+        assertEquals(changesCount + 1, factory.getPublishedChangesCount());
+
+        int queriesCount = provider.getQueriesCount();
+        factory.onDataSetChanged();
+        assertEquals("Data was preloaded", queriesCount, provider.getQueriesCount());
+
+        long reloadsCount = factory.getReloadsCount();
+        EnvironmentChangedReceiver.sleep(MIN_MILLIS_BETWEEN_RELOADS);
+        factory.onDataSetChanged();
+        assertEquals("Preloaded data is used once", reloadsCount + 1, factory.getReloadsCount());
+    }
+
+    private void setEvent(CalendarEvent event) {
+        EnvironmentChangedReceiver.sleep(MIN_MILLIS_BETWEEN_RELOADS);
+        provider.clear();
+        provider.addRow(event);
+    }
+}
@@ -4,13 +4,20 @@ import android.util.Log;
 
 import androidx.test.platform.app.InstrumentationRegistry;
 
+import org.andstatus.todoagenda.prefs.ApplicationPreferences;
 import org.andstatus.todoagenda.provider.QueryResultsStorage;
+import org.andstatus.todoagenda.widget.DayHeader;
+import org.andstatus.todoagenda.widget.LastEntry;
+import org.andstatus.todoagenda.widget.WidgetEntry;
 import org.json.JSONException;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 /**
  * @author yvolk@yurivolkov.com
@@ -32,4 +39,49 @@ public class DuplicateEventsTest extends BaseWidgetTest {
         factory.logWidgetEntries(method);
         assertEquals("Number of entries", 40, factory.getWidgetEntries().size());
     }
+
+    @Test
+    public void testHideDuplicatesMatchesPairwiseComparison() throws IOException, JSONException {
+        final String method = "testHideDuplicatesMatchesPairwiseComparison";
+        QueryResultsStorage inputs = provider.loadResults(InstrumentationRegistry.getInstrumentation().getContext(),
+                org.andstatus.todoagenda.tests.R.raw.duplicates);
+        provider.addResults(inputs.getResults());
+        provider.startEditing();
+        ApplicationPreferences.setHideDuplicates(provider.getContext(), false);
+        provider.saveSettings();
+
+        factory.onDataSetChanged();
+        List<WidgetEntry> entries = new ArrayList<>();
+        for (WidgetEntry entry : factory.getWidgetEntries()) {
+            if (!(entry instanceof DayHeader) && !(entry instanceof LastEntry)) {
+                entries.add(entry);
+            }
+        }
+        List<WidgetEntry> expected = hideDuplicatesPairwise(entries);
+        List<WidgetEntry> actual = RemoteViewsFactory.hideDuplicates(entries);
+        Log.d(method, "Entries: " + entries.size() + ", without duplicates: " + actual.size());
+        assertEquals("Number of entries", expected.size(), actual.size());
+        for (int ind = 0; ind < expected.size(); ind++) {
+            assertSame("Entry " + ind, expected.get(ind), actual.get(ind));
+        }
+    }
+
+    /** The original O(n²) algorithm, used as a reference */
+    private static List<WidgetEntry> hideDuplicatesPairwise(List<WidgetEntry> inputEntries) {
+        List<WidgetEntry> deduplicated = new ArrayList<>();
+        List<WidgetEntry> hidden = new ArrayList<>();
+        for(int ind1 = 0; ind1 < inputEntries.size(); ind1++) {
+            WidgetEntry inputEntry = inputEntries.get(ind1);
+            if (!hidden.contains(inputEntry)) {
+                deduplicated.add(inputEntry);
+                for(int ind2 = ind1 + 1; ind2 < inputEntries.size(); ind2++) {
+                    WidgetEntry entry2 = inputEntries.get(ind2);
+                    if (!hidden.contains(entry2) && inputEntry.duplicates(entry2)) {
+                        hidden.add(entry2);
+                    }
+                }
+            }
+        }
+        return deduplicated;
+    }
 }
@@ -0,0 +1,89 @@
+package org.andstatus.todoagenda;
+
+import org.andstatus.todoagenda.prefs.ApplicationPreferences;
+import org.andstatus.todoagenda.prefs.EventSource;
+import org.andstatus.todoagenda.prefs.OrderedEventSource;
+import org.andstatus.todoagenda.provider.EventProviderType;
+import org.andstatus.todoagenda.provider.QueryResult;
+import org.andstatus.todoagenda.provider.QueryRow;
+import org.andstatus.todoagenda.task.dmfs.DmfsOpenTasksContract;
+import org.andstatus.todoagenda.util.DateUtil;
+import org.andstatus.todoagenda.widget.TaskEntry;
+import org.andstatus.todoagenda.widget.WidgetEntry;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class OverdueTasksTest extends BaseWidgetTest {
+    private static final int TASK_LIST_ID = 2;
+    private static final int MAX_OVERDUE_TASKS = 10;
+    private static final int OVERDUE_TASKS_COUNT = 15;
+    private static final String HIDDEN_KEYWORD = "Secret";
+
+    @Override
+    protected int getNumberOfOpenTasksSources() {
+        return 1;
+    }
+
+    @Test
+    public void testOverdueTasksOverTheLimitAreSummarized() {
+        provider.startEditing();
+        ApplicationPreferences.setActiveEventSources(provider.getContext(), Collections.singletonList(
+                new OrderedEventSource(new EventSource(EventProviderType.DMFS_OPEN_TASKS, TASK_LIST_ID,
+                        "Tasks", "", 0xFFFF0000, true), 1)));
+        ApplicationPreferences.setMaxOverdueTasks(provider.getContext(), MAX_OVERDUE_TASKS);
+        ApplicationPreferences.setHideBasedOnKeywords(provider.getContext(), HIDDEN_KEYWORD);
+        provider.saveSettings();
+
+        DateTime today = DateUtil.now(provider.getSettings().getTimeZone()).withTimeAtStartOfDay();
+        QueryResult result = new QueryResult(EventProviderType.DMFS_OPEN_TASKS, provider.getSettings(),
+                DmfsOpenTasksContract.Tasks.PROVIDER_URI, null, null, null, null);
+        // Rows are added oldest first, the provider returns them sorted newest first
+        int id = 0;
+        for (int days = 25; days > 0; days--) {
+            if (days <= OVERDUE_TASKS_COUNT) {
+                result.addRow(newTask(++id, "Overdue " + days, today.minusDays(days)));
+            }
+            if (days == 3 || days == 12 || days == 20) {
+                result.addRow(newTask(++id, HIDDEN_KEYWORD + " " + days, today.minusDays(days)));
+            }
+        }
+        result.addRow(newTask(++id, "Future 2", today.plusDays(2)));
+        result.addRow(newTask(++id, "Future 5", today.plusDays(5)));
+        provider.addResult(result);
+
+        factory.onDataSetChanged();
+        factory.logWidgetEntries(TAG);
+
+        List<String> titles = new ArrayList<>();
+        for (WidgetEntry entry : factory.getWidgetEntries()) {
+            if (entry instanceof TaskEntry) {
+                titles.add(entry.getTitle());
+            }
+        }
+        List<String> expected = new ArrayList<>();
+        expected.add(provider.getContext().getResources().getQuantityString(R.plurals.more_overdue_tasks,
+                OVERDUE_TASKS_COUNT - MAX_OVERDUE_TASKS, OVERDUE_TASKS_COUNT - MAX_OVERDUE_TASKS));
+        for (int days = MAX_OVERDUE_TASKS; days > 0; days--) {
+            expected.add("Overdue " + days);
+        }
+        expected.add("Future 2");
+        expected.add("Future 5");
+        assertEquals(expected, titles);
+    }
+
+    private static QueryRow newTask(int id, String title, DateTime due) {
+        long dueMillis = due.plusHours(10).getMillis();
+        return new QueryRow()
+                .setColumn(DmfsOpenTasksContract.Tasks.COLUMN_LIST_ID, TASK_LIST_ID)
+                .setColumn(DmfsOpenTasksContract.Tasks.COLUMN_ID, id)
+                .setColumn(DmfsOpenTasksContract.Tasks.COLUMN_TITLE, title)
+                .setColumn(DmfsOpenTasksContract.Tasks.COLUMN_DUE_DATE, dueMillis)
+                .setColumn(DmfsOpenTasksContract.Tasks.COLUMN_COLOR, 0xFFFF0000);
+    }
+}
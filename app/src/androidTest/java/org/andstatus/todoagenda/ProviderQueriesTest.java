@@ -0,0 +1,136 @@
+package org.andstatus.todoagenda;
+
+import android.os.CancellationSignal;
+import android.widget.RemoteViews;
+
+import org.andstatus.todoagenda.provider.EventProvider;
+import org.andstatus.todoagenda.provider.EventProviderType;
+import org.andstatus.todoagenda.util.DateUtil;
+import org.andstatus.todoagenda.widget.DayHeader;
+import org.andstatus.todoagenda.widget.WidgetEntry;
+import org.andstatus.todoagenda.widget.WidgetEntryVisualizer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ProviderQueriesTest extends BaseWidgetTest {
+    private static final int QUERY_MILLIS = 400;
+
+    @Test
+    public void testProvidersAreQueriedConcurrently() {
+        ProviderQueries queries = new ProviderQueries(provider.getWidgetId(), 5000);
+        List<WidgetEntryVisualizer<? extends WidgetEntry>> visualizers = new ArrayList<>();
+        visualizers.add(new SlowVisualizer(EventProviderType.CALENDAR, QUERY_MILLIS));
+        visualizers.add(new SlowVisualizer(EventProviderType.DMFS_OPEN_TASKS, QUERY_MILLIS));
+        visualizers.add(new SlowVisualizer(EventProviderType.SAMSUNG_TASKS, QUERY_MILLIS));
+
+        long startedAt = System.currentTimeMillis();
+        List<List<? extends WidgetEntry>> results = queries.query(visualizers, new CancellationSignal());
+        long elapsed = System.currentTimeMillis() - startedAt;
+
+        assertEquals(3, results.size());
+        assertTrue("Elapsed " + elapsed + " ms", elapsed < 2 * QUERY_MILLIS);
+    }
+
+    @Test
+    public void testTimedOutProviderKeepsLastResult() {
+        ProviderQueries queries = new ProviderQueries(provider.getWidgetId(), QUERY_MILLIS);
+        SlowVisualizer calendar = new SlowVisualizer(EventProviderType.CALENDAR, 0);
+        List<WidgetEntryVisualizer<? extends WidgetEntry>> visualizers = new ArrayList<>();
+        visualizers.add(calendar);
+        visualizers.add(new SlowVisualizer(EventProviderType.DMFS_OPEN_TASKS, 0));
+        List<? extends WidgetEntry> goodEntries = queries.query(visualizers, new CancellationSignal()).get(0);
+        assertEquals(1, goodEntries.size());
+
+        calendar.queryMillis = 3 * QUERY_MILLIS;
+        List<List<? extends WidgetEntry>> results = queries.query(visualizers, new CancellationSignal());
+        assertSame("Last good result", goodEntries, results.get(0));
+        assertEquals(1, results.get(1).size());
+        assertEquals(1, queries.getTimeoutsCount());
+    }
+
+    @Test
+    public void testTimedOutQueryDoesNotDelayNextQuery() {
+        ProviderQueries queries = new ProviderQueries(provider.getWidgetId(), QUERY_MILLIS);
+        SlowVisualizer calendar = new SlowVisualizer(EventProviderType.CALENDAR, 4 * QUERY_MILLIS);
+        List<WidgetEntryVisualizer<? extends WidgetEntry>> visualizers = new ArrayList<>();
+        visualizers.add(calendar);
+        queries.query(visualizers, new CancellationSignal());
+        assertEquals(1, queries.getTimeoutsCount());
+
+        calendar.queryMillis = 0;
+        List<List<? extends WidgetEntry>> results = queries.query(visualizers, new CancellationSignal());
+        assertEquals("New result, while the timed out query still runs", 1, results.get(0).size());
+        assertEquals(1, queries.getTimeoutsCount());
+    }
+
+    @Test
+    public void testWidgetsShareBoundedThreads() throws InterruptedException {
+        final int widgetsCount = 3 * ProviderQueries.MAX_THREADS;
+        final Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        final List<List<List<? extends WidgetEntry>>> results = Collections.synchronizedList(
+                new ArrayList<List<List<? extends WidgetEntry>>>());
+        List<Thread> widgets = new ArrayList<>();
+        for (int ind = 0; ind < widgetsCount; ind++) {
+            final ProviderQueries queries = new ProviderQueries(provider.getWidgetId() + ind, 5000);
+            final List<WidgetEntryVisualizer<? extends WidgetEntry>> visualizers = new ArrayList<>();
+            visualizers.add(new SlowVisualizer(EventProviderType.CALENDAR, QUERY_MILLIS / 4) {
+                @Override
+                public List<DayHeader> queryEventEntries() {
+                    threadNames.add(Thread.currentThread().getName());
+                    return super.queryEventEntries();
+                }
+            });
+            Thread widget = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    results.add(queries.query(visualizers, new CancellationSignal()));
+                }
+            });
+            widget.start();
+            widgets.add(widget);
+        }
+        for (Thread widget : widgets) {
+            widget.join();
+        }
+
+        assertEquals(widgetsCount, results.size());
+        for (List<List<? extends WidgetEntry>> result : results) {
+            assertEquals("Queued queries are not rejected", 1, result.get(0).size());
+        }
+        assertTrue("Threads: " + threadNames, threadNames.size() <= ProviderQueries.MAX_THREADS);
+    }
+
+    private class SlowVisualizer extends WidgetEntryVisualizer<DayHeader> {
+        volatile int queryMillis;
+
+        SlowVisualizer(EventProviderType type, int queryMillis) {
+            super(new EventProvider(type, provider.getContext(), provider.getWidgetId()));
+            this.queryMillis = queryMillis;
+        }
+
+        @Override
+        public RemoteViews getRemoteViews(WidgetEntry eventEntry, int position) {
+            return null;
+        }
+
+        @Override
+        public int getViewTypeCount() {
+            return 0;
+        }
+
+        @Override
+        public List<DayHeader> queryEventEntries() {
+            EnvironmentChangedReceiver.sleep(queryMillis);
+            return Collections.singletonList(new DayHeader(DateUtil.now(getSettings().getTimeZone())));
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.andstatus.todoagenda;
 
+import org.andstatus.todoagenda.calendar.CalendarEventProvider;
 import org.andstatus.todoagenda.prefs.ApplicationPreferences;
 import org.andstatus.todoagenda.provider.QueryRow;
 import org.andstatus.todoagenda.util.DateUtil;
@@ -35,6 +36,37 @@ public class RecurringEventsTest extends BaseWidgetTest {
         assertEquals("Entries: " + factory.getWidgetEntries().size(), 1, countCalendarEntries());
     }
 
+    @Test
+    public void testClosestInstanceOutsideOfNarrowWindow() {
+        provider.startEditing();
+        ApplicationPreferences.setShowOnlyClosestInstanceOfRecurringEvent(provider.getContext(), true);
+        provider.saveSettings();
+        EnvironmentChangedReceiver.sleep(MIN_MILLIS_BETWEEN_RELOADS);
+        provider.clear();
+        DateTime date = DateUtil.now(provider.getSettings().getTimeZone()).withTimeAtStartOfDay();
+        long daily = date.getMillis() + TimeUnit.HOURS.toMillis(10);
+        for (int ind = 0; ind < 15; ind++) {
+            daily += TimeUnit.DAYS.toMillis(1);
+            provider.addRow(new QueryRow().setEventId(101).setTitle("Work each day")
+                    .setBegin(daily).setEnd(daily + TimeUnit.HOURS.toMillis(9)));
+        }
+        long closestFar = date.plusDays(CalendarEventProvider.CLOSEST_INSTANCE_WINDOW_DAYS + 3).getMillis();
+        for (int ind = 0; ind < 2; ind++) {
+            long millis = closestFar + TimeUnit.DAYS.toMillis(10) * ind;
+            provider.addRow(new QueryRow().setEventId(102).setTitle("Each ten days")
+                    .setBegin(millis).setEnd(millis + TimeUnit.HOURS.toMillis(1)));
+        }
+        factory.onDataSetChanged();
+        factory.logWidgetEntries(TAG);
+
+        assertEquals("Entries: " + factory.getWidgetEntries().size(), 2, countCalendarEntries());
+        for (WidgetEntry widgetEntry : factory.getWidgetEntries()) {
+            if (widgetEntry instanceof CalendarEntry && ((CalendarEntry) widgetEntry).getEvent().getEventId() == 102) {
+                assertEquals(closestFar, widgetEntry.getStartMillis());
+            }
+        }
+    }
+
     int countCalendarEntries() {
         int count = 0;
         for (WidgetEntry widgetEntry : factory.getWidgetEntries()) {
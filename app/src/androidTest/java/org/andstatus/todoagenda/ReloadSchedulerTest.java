@@ -0,0 +1,142 @@
+package org.andstatus.todoagenda;
+
+import android.os.CancellationSignal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReloadSchedulerTest {
+
+    @Test
+    public void testOverlappingTriggersAreMerged() throws InterruptedException {
+        final ReloadScheduler scheduler = new ReloadScheduler(1, 100);
+        final AtomicInteger passes = new AtomicInteger();
+        final ReloadScheduler.Reload slowReload = new ReloadScheduler.Reload() {
+            @Override
+            public void run(CancellationSignal signal) {
+                passes.incrementAndGet();
+                EnvironmentChangedReceiver.sleep(300);
+            }
+        };
+
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.requestReload(slowReload);
+            }
+        });
+        first.start();
+        EnvironmentChangedReceiver.sleep(100);
+
+        List<Thread> followers = new ArrayList<>();
+        for (int ind = 0; ind < 5; ind++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    scheduler.requestReload(slowReload);
+                }
+            });
+            followers.add(thread);
+            thread.start();
+        }
+        first.join();
+        for (Thread thread : followers) {
+            thread.join();
+        }
+
+        assertEquals("One pass plus one trailing pass", 2, passes.get());
+        assertEquals(2, scheduler.getReloadsCount());
+        assertEquals("Merged triggers", 4, scheduler.getMergedTriggersCount());
+    }
+
+    @Test
+    public void testSequentialTriggersAreNotDropped() {
+        ReloadScheduler scheduler = new ReloadScheduler(2, 100);
+        final AtomicInteger passes = new AtomicInteger();
+        ReloadScheduler.Reload reload = new ReloadScheduler.Reload() {
+            @Override
+            public void run(CancellationSignal signal) {
+                passes.incrementAndGet();
+            }
+        };
+        for (int ind = 0; ind < 3; ind++) {
+            assertEquals(1, scheduler.requestReload(reload));
+        }
+        assertEquals(3, passes.get());
+        assertEquals(0, scheduler.getMergedTriggersCount());
+    }
+
+    @Test
+    public void testNewTriggerCancelsRunningReload() throws InterruptedException {
+        final ReloadScheduler scheduler = new ReloadScheduler(3, 100);
+        final AtomicInteger started = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        final ReloadScheduler.Reload cancellableReload = new ReloadScheduler.Reload() {
+            @Override
+            public void run(CancellationSignal signal) {
+                started.incrementAndGet();
+                for (int step = 0; step < 10; step++) {
+                    signal.throwIfCanceled();
+                    EnvironmentChangedReceiver.sleep(50);
+                }
+                completed.incrementAndGet();
+            }
+        };
+
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.requestReload(cancellableReload);
+            }
+        });
+        first.start();
+        EnvironmentChangedReceiver.sleep(200);
+        scheduler.requestReload(cancellableReload);
+        first.join();
+
+        assertEquals("Started", 2, started.get());
+        assertEquals("One reload served both triggers", 1, completed.get());
+        assertEquals(1, scheduler.getCancelledReloadsCount());
+        assertEquals(1, scheduler.getReloadsCount());
+    }
+
+    @Test
+    public void testCancelsAreBounded() throws InterruptedException {
+        final ReloadScheduler scheduler = new ReloadScheduler(4, 10);
+        final AtomicInteger completed = new AtomicInteger();
+        final ReloadScheduler.Reload cancellableReload = new ReloadScheduler.Reload() {
+            @Override
+            public void run(CancellationSignal signal) {
+                for (int step = 0; step < 10; step++) {
+                    signal.throwIfCanceled();
+                    EnvironmentChangedReceiver.sleep(50);
+                }
+                completed.incrementAndGet();
+            }
+        };
+
+        List<Thread> threads = new ArrayList<>();
+        for (int ind = 0; ind < ReloadScheduler.MAX_CONSECUTIVE_CANCELS + 3; ind++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    scheduler.requestReload(cancellableReload);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+            EnvironmentChangedReceiver.sleep(150);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(ReloadScheduler.MAX_CONSECUTIVE_CANCELS, scheduler.getCancelledReloadsCount());
+        assertEquals(completed.get(), scheduler.getReloadsCount());
+    }
+}
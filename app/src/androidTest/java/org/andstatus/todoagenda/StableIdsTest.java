@@ -0,0 +1,84 @@
+package org.andstatus.todoagenda;
+
+import android.util.Log;
+
+import org.andstatus.todoagenda.calendar.CalendarEvent;
+import org.andstatus.todoagenda.util.DateUtil;
+import org.andstatus.todoagenda.widget.WidgetEntry;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.andstatus.todoagenda.RemoteViewsFactory.MIN_MILLIS_BETWEEN_RELOADS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StableIdsTest extends BaseWidgetTest {
+    private static final int EVENTS_COUNT = 20;
+
+    /** Inserting one event at the top of the list shouldn't change ids of all rows below it */
+    @Test
+    public void testInsertedEventChangesOneId() {
+        assertTrue(factory.hasStableIds());
+        DateTime today = DateUtil.now(provider.getSettings().getTimeZone()).withTimeAtStartOfDay();
+        DateUtil.setNow(today.plusHours(8));
+
+        List<CalendarEvent> events = new ArrayList<>();
+        for (int ind = 0; ind < EVENTS_COUNT; ind++) {
+            events.add(newEvent(ind + 1, "Event " + ind, today.plusHours(12 + ind * 5)));
+        }
+        List<Long> idsBefore = reloadAndGetIds(events);
+
+        events.add(newEvent(EVENTS_COUNT + 1, "Inserted event", today.plusHours(10)));
+        List<Long> idsAfter = reloadAndGetIds(events);
+        assertEquals(idsBefore.size() + 1, idsAfter.size());
+
+        Set<Long> previousIds = new HashSet<>(idsBefore);
+        int newIds = 0;
+        for (long id : idsAfter) {
+            if (!previousIds.contains(id)) newIds++;
+        }
+        int shiftedPositions = 0;
+        for (int position = 0; position < idsBefore.size(); position++) {
+            if (idsBefore.get(position).longValue() != idsAfter.get(position).longValue()) shiftedPositions++;
+        }
+        Log.i(TAG, "Rows to rebind, stable ids: " + newIds + ", position ids: " + shiftedPositions);
+        assertEquals("New ids " + idsAfter, 1, newIds);
+        assertTrue("Shifted positions " + shiftedPositions, shiftedPositions > EVENTS_COUNT / 2);
+    }
+
+    private CalendarEvent newEvent(int eventId, String title, DateTime startDate) {
+        CalendarEvent event = new CalendarEvent(provider.getContext(), provider.getWidgetId(),
+                provider.getSettings().getTimeZone(), false);
+        event.setEventSource(provider.getFirstActiveEventSource());
+        event.setEventId(eventId);
+        event.setTitle(title);
+        event.setStartDate(startDate);
+        event.setEndDate(startDate.plusHours(1));
+        return event;
+    }
+
+    private List<Long> reloadAndGetIds(List<CalendarEvent> events) {
+        EnvironmentChangedReceiver.sleep(MIN_MILLIS_BETWEEN_RELOADS);
+        provider.clear();
+        for (CalendarEvent event : events) {
+            provider.addRow(event);
+        }
+        factory.onDataSetChanged();
+        factory.logWidgetEntries(TAG);
+        List<Long> ids = new ArrayList<>();
+        Set<Long> uniqueIds = new HashSet<>();
+        List<? extends WidgetEntry> entries = factory.getWidgetEntries();
+        for (int position = 0; position < entries.size(); position++) {
+            long id = factory.getItemId(position);
+            ids.add(id);
+            uniqueIds.add(id);
+        }
+        assertEquals("Ids are unique " + entries, ids.size(), uniqueIds.size());
+        return ids;
+    }
+}
@@ -0,0 +1,110 @@
+package org.andstatus.todoagenda;
+
+import org.andstatus.todoagenda.util.DateUtil;
+import org.andstatus.todoagenda.widget.DayHeader;
+import org.andstatus.todoagenda.widget.LastEntry;
+import org.andstatus.todoagenda.widget.WidgetEntry;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WidgetEntryListTest {
+    private final DateTimeZone zone = DateTimeZone.forID("Europe/Moscow");
+    private final DateTime today = DateUtil.now(zone).withTimeAtStartOfDay();
+
+    @Test
+    public void testSameRowsAsStoredHeaders() {
+        List<WidgetEntry> entries = new ArrayList<>();
+        entries.add(newEntry(today.minusDays(3).plusHours(5)));
+        entries.add(newEntry(today.minusDays(1).plusHours(5)));
+        entries.add(newEntry(today.plusHours(10)));
+        entries.add(newEntry(today.plusHours(11)));
+        entries.add(newEntry(today.plusDays(4).plusHours(1)));
+        entries.add(newEntry(today.plusDays(365)));
+
+        for (boolean pastUnderOneHeader : new boolean[]{false, true}) {
+            for (boolean daysWithoutEvents : new boolean[]{false, true}) {
+                assertSameRows(storedHeaders(entries, pastUnderOneHeader, daysWithoutEvents),
+                        WidgetEntryList.withDayHeaders(entries, today, pastUnderOneHeader, daysWithoutEvents));
+            }
+        }
+    }
+
+    @Test
+    public void testHeadersAreCreatedOnAccess() {
+        List<WidgetEntry> entries = new ArrayList<>();
+        entries.add(newEntry(today.plusDays(2).plusHours(10)));
+        WidgetEntryList list = WidgetEntryList.withDayHeaders(entries, today, false, true);
+        assertEquals(4, list.size());
+        WidgetEntry header = list.get(0);
+        assertTrue(header instanceof DayHeader);
+        assertNotSame("Headers are not stored", header, list.get(0));
+        assertEquals(header.getStableId(), list.get(0).getStableId());
+        assertSame(entries.get(0), list.get(3));
+        assertSame(entries.get(0), list.peek(3));
+    }
+
+    @Test
+    public void testEmptyList() {
+        assertEquals(0, WidgetEntryList.withDayHeaders(new ArrayList<WidgetEntry>(), today, true, true).size());
+    }
+
+    private void assertSameRows(List<WidgetEntry> expected, List<WidgetEntry> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int ind = 0; ind < expected.size(); ind++) {
+            WidgetEntry expectedEntry = expected.get(ind);
+            WidgetEntry actualEntry = actual.get(ind);
+            if (expectedEntry instanceof DayHeader) {
+                assertTrue("Row " + ind + ": " + actualEntry, actualEntry instanceof DayHeader);
+                assertEquals("Row " + ind, expectedEntry.getStartMillis(), actualEntry.getStartMillis());
+                assertEquals("Row " + ind, expectedEntry.getStableId(), actualEntry.getStableId());
+            } else {
+                assertSame("Row " + ind, expectedEntry, actualEntry);
+            }
+        }
+    }
+
+    private static WidgetEntry newEntry(DateTime date) {
+        return new LastEntry(LastEntry.LastEntryType.LAST, date);
+    }
+
+    /** How day headers were added as objects */
+    private List<WidgetEntry> storedHeaders(List<WidgetEntry> listIn, boolean pastUnderOneHeader,
+                                            boolean daysWithoutEvents) {
+        List<WidgetEntry> listOut = new ArrayList<>();
+        DayHeader curDayBucket = new DayHeader(DateUtil.DATETIME_MIN);
+        boolean pastEventsHeaderAdded = false;
+        for (WidgetEntry entry : listIn) {
+            DateTime nextStartOfDay = entry.getStartDay();
+            if (pastUnderOneHeader && nextStartOfDay.isBefore(today)) {
+                if (!pastEventsHeaderAdded) {
+                    listOut.add(curDayBucket);
+                    pastEventsHeaderAdded = true;
+                }
+            } else if (!nextStartOfDay.isEqual(curDayBucket.getStartDay())) {
+                if (daysWithoutEvents) {
+                    DateTime emptyDay = curDayBucket.getStartDay().plusDays(1);
+                    if (emptyDay.isBefore(today)) {
+                        emptyDay = today;
+                    }
+                    while (emptyDay.isBefore(nextStartOfDay)) {
+                        listOut.add(new DayHeader(emptyDay));
+                        emptyDay = emptyDay.plusDays(1);
+                    }
+                }
+                curDayBucket = new DayHeader(nextStartOfDay);
+                listOut.add(curDayBucket);
+            }
+            listOut.add(entry);
+        }
+        return listOut;
+    }
+}
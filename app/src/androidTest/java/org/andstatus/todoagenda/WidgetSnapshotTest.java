@@ -0,0 +1,103 @@
+package org.andstatus.todoagenda;
+
+import org.andstatus.todoagenda.calendar.CalendarEvent;
+import org.andstatus.todoagenda.util.DateUtil;
+import org.andstatus.todoagenda.widget.TimeSection;
+import org.andstatus.todoagenda.widget.WidgetEntry;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.andstatus.todoagenda.RemoteViewsFactory.MIN_MILLIS_BETWEEN_RELOADS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WidgetSnapshotTest extends BaseWidgetTest {
+
+    @Test
+    public void testEachReloadPublishesNewGeneration() {
+        DateTime today = DateUtil.now(provider.getSettings().getTimeZone()).withTimeAtStartOfDay();
+        DateUtil.setNow(today.plusHours(10));
+        CalendarEvent event = new CalendarEvent(provider.getContext(), provider.getWidgetId(),
+                provider.getSettings().getTimeZone(), false);
+        event.setEventSource(provider.getFirstActiveEventSource());
+        event.setEventId(1);
+        event.setTitle("Snapshot event");
+        event.setStartDate(today.plusHours(12));
+        event.setEndDate(today.plusHours(13));
+
+        long generation = factory.getGeneration();
+        List<? extends WidgetEntry> entries = reload(event);
+        assertEquals(generation + 1, factory.getGeneration());
+        List<? extends WidgetEntry> entries2 = reload(event);
+        assertEquals("Unchanged content is published too", generation + 2, factory.getGeneration());
+        assertNotSame(entries, entries2);
+        assertEquals(entries.size(), entries2.size());
+
+        try {
+            entries2.remove(0);
+            fail("Published entries should be immutable");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testPositionsOfDays() {
+        DateTime today = DateUtil.now(provider.getSettings().getTimeZone()).withTimeAtStartOfDay();
+        DateUtil.setNow(today.plusHours(10));
+        reload(newEvent(1, today.minusDays(2).plusHours(9)),
+                newEvent(2, today.plusHours(8)),
+                newEvent(3, today.plusHours(12)),
+                newEvent(4, today.plusDays(3).plusHours(12)));
+
+        WidgetSnapshot snapshot = factory.getSnapshot();
+        List<WidgetEntry> entries = snapshot.entries;
+        assertEquals(linearTodaysPosition(entries), snapshot.todaysPosition);
+        assertEquals(linearTomorrowsPosition(entries), snapshot.tomorrowsPosition);
+        for (int ind = 0; ind < entries.size(); ind++) {
+            int firstPosition = snapshot.getFirstPositionOfDay(entries.get(ind).getStartDate());
+            assertTrue("Position " + ind + ", first:" + firstPosition, firstPosition <= ind);
+            assertEquals(entries.get(ind).getStartDay(), entries.get(firstPosition).getStartDay());
+        }
+        assertEquals(-1, snapshot.getFirstPositionOfDay(today.plusDays(1)));
+    }
+
+    private static int linearTodaysPosition(List<WidgetEntry> entries) {
+        for (int ind = 0; ind < entries.size() - 1; ind++) {
+            if (entries.get(ind).getStartDaySection() != TimeSection.PAST) return ind;
+        }
+        return entries.size() - 1;
+    }
+
+    private static int linearTomorrowsPosition(List<WidgetEntry> entries) {
+        for (int ind = 0; ind < entries.size() - 1; ind++) {
+            if (entries.get(ind).getStartDaySection() == TimeSection.FUTURE) return ind;
+        }
+        return entries.size() > 0 ? 0 : -1;
+    }
+
+    private CalendarEvent newEvent(int eventId, DateTime startDate) {
+        CalendarEvent event = new CalendarEvent(provider.getContext(), provider.getWidgetId(),
+                provider.getSettings().getTimeZone(), false);
+        event.setEventSource(provider.getFirstActiveEventSource());
+        event.setEventId(eventId);
+        event.setTitle("Event " + eventId);
+        event.setStartDate(startDate);
+        event.setEndDate(startDate.plusHours(1));
+        return event;
+    }
+
+    private List<? extends WidgetEntry> reload(CalendarEvent... events) {
+        EnvironmentChangedReceiver.sleep(MIN_MILLIS_BETWEEN_RELOADS);
+        provider.clear();
+        for (CalendarEvent event : events) {
+            provider.addRow(event);
+        }
+        factory.onDataSetChanged();
+        return factory.getWidgetEntries();
+    }
+}
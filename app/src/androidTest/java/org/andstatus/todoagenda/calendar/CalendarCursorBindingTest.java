@@ -0,0 +1,110 @@
+package org.andstatus.todoagenda.calendar;
+
+import android.database.Cursor;
+import android.provider.CalendarContract.Instances;
+import android.util.Log;
+
+import org.andstatus.todoagenda.BaseWidgetTest;
+import org.andstatus.todoagenda.prefs.OrderedEventSource;
+import org.andstatus.todoagenda.provider.EventProviderType;
+import org.andstatus.todoagenda.provider.QueryResult;
+import org.andstatus.todoagenda.provider.QueryRow;
+import org.andstatus.todoagenda.util.DateUtil;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/** Benchmark of mapping of Instances rows to events */
+public class CalendarCursorBindingTest extends BaseWidgetTest {
+    private static final String TAG = CalendarCursorBindingTest.class.getSimpleName();
+    private static final int ROWS_COUNT = 10000;
+
+    @Test
+    public void testBindingOnLargeCursor() {
+        DateTime today = DateUtil.now(provider.getSettings().getTimeZone()).withTimeAtStartOfDay();
+        OrderedEventSource source = provider.getFirstActiveEventSource();
+        QueryResult result = new QueryResult(EventProviderType.CALENDAR, provider.getSettings(),
+                Instances.CONTENT_URI, CalendarEventProvider.getProjection(), null, null, null);
+        for (int ind = 0; ind < ROWS_COUNT; ind++) {
+            DateTime start = today.plusMinutes(ind * 30);
+            result.addRow(new QueryRow()
+                    .setCalendarId(source.source.getId())
+                    .setEventId(ind + 1)
+                    .setTitle("Event " + ind)
+                    .setBegin(start.getMillis())
+                    .setEnd(start.plusMinutes(20).getMillis())
+                    .setAllDay(ind % 50 == 0 ? 1 : 0)
+                    .setEventLocation(ind % 3 == 0 ? "Room " + ind : null)
+                    .setHasAlarm(ind % 2)
+                    .setRRule(ind % 7 == 0 ? "FREQ=DAILY" : null)
+                    .setDisplayColor(0xFF00FF00 + ind));
+        }
+        provider.clear();
+        // Both mappings read the same rows
+        provider.addResult(result);
+        provider.addResult(result);
+        CalendarEventProvider eventProvider = new CalendarEventProvider(EventProviderType.CALENDAR,
+                provider.getContext(), provider.getWidgetId()) {
+            {
+                initialiseParameters();
+            }
+        };
+
+        Cursor cursor = query();
+        long startedAt = System.nanoTime();
+        List<CalendarEvent> perRowLookups = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            perRowLookups.add(createWithPerRowLookups(cursor));
+        }
+        long perRowLookupsNanos = System.nanoTime() - startedAt;
+        cursor.close();
+
+        cursor = query();
+        startedAt = System.nanoTime();
+        List<CalendarEvent> bound = new ArrayList<>();
+        CalendarEventProvider.CursorBinding binding =
+                new CalendarEventProvider.CursorBinding(cursor, eventProvider.getSourcesById());
+        while (cursor.moveToNext()) {
+            bound.add(eventProvider.createCalendarEvent(cursor, binding));
+        }
+        long boundNanos = System.nanoTime() - startedAt;
+        cursor.close();
+
+        Log.i(TAG, ROWS_COUNT + " rows, per row lookups: " + perRowLookupsNanos / 1000000 +
+                " ms, binding once per query: " + boundNanos / 1000000 + " ms");
+        assertEquals(ROWS_COUNT, bound.size());
+        for (int ind = 0; ind < ROWS_COUNT; ind++) {
+            assertEquals(perRowLookups.get(ind).toString(), bound.get(ind).toString());
+            assertEquals(source, bound.get(ind).getEventSource());
+        }
+    }
+
+    private Cursor query() {
+        return provider.getContext().getContentResolver().query(Instances.CONTENT_URI,
+                CalendarEventProvider.getProjection(), null, null, null);
+    }
+
+    /** How rows were mapped before column indices were resolved once per query */
+    private CalendarEvent createWithPerRowLookups(Cursor cursor) {
+        OrderedEventSource source = provider.getSettings()
+                .getActiveEventSource(EventProviderType.CALENDAR,
+                        cursor.getInt(cursor.getColumnIndex(Instances.CALENDAR_ID)));
+        boolean allDay = cursor.getInt(cursor.getColumnIndex(Instances.ALL_DAY)) > 0;
+        CalendarEvent event = new CalendarEvent(provider.getContext(), provider.getWidgetId(),
+                provider.getSettings().getTimeZone(), allDay);
+        event.setEventSource(source);
+        event.setEventId(cursor.getInt(cursor.getColumnIndex(Instances.EVENT_ID)));
+        event.setTitle(cursor.getString(cursor.getColumnIndex(Instances.TITLE)));
+        event.setStartMillis(cursor.getLong(cursor.getColumnIndex(Instances.BEGIN)));
+        event.setEndMillis(cursor.getLong(cursor.getColumnIndex(Instances.END)));
+        event.setLocation(cursor.getString(cursor.getColumnIndex(Instances.EVENT_LOCATION)));
+        event.setAlarmActive(cursor.getInt(cursor.getColumnIndex(Instances.HAS_ALARM)) > 0);
+        event.setRecurring(cursor.getString(cursor.getColumnIndex(Instances.RRULE)) != null);
+        event.setColor(0xFF000000 | cursor.getInt(cursor.getColumnIndex(Instances.DISPLAY_COLOR)));
+        return event;
+    }
+}
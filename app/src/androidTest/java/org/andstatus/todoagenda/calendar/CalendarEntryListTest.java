@@ -0,0 +1,125 @@
+package org.andstatus.todoagenda.calendar;
+
+import org.andstatus.todoagenda.prefs.EventSource;
+import org.andstatus.todoagenda.prefs.OrderedEventSource;
+import org.andstatus.todoagenda.provider.EventProviderType;
+import org.andstatus.todoagenda.util.DateUtil;
+import org.andstatus.todoagenda.widget.CalendarEntry;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class CalendarEntryListTest {
+    private static final DateTimeZone ZONE = DateTimeZone.forID("Europe/Moscow");
+    private static final OrderedEventSource SOURCE = new OrderedEventSource(
+            new EventSource(EventProviderType.CALENDAR, 1, "Calendar", "", 0, true), 1);
+    private final DateTime today = DateUtil.now(ZONE).withTimeAtStartOfDay();
+
+    @Test
+    public void testFollowingDaysAreExpandedInOrder() {
+        CalendarEntryList list = newList();
+        DateTime[] expected = {today.plusHours(10), today.plusDays(1), today.plusDays(2),
+                today.plusDays(2).plusHours(9), today.plusDays(3), today.plusDays(4)};
+        assertEquals(expected.length, list.size());
+        for (int ind = 0; ind < expected.length; ind++) {
+            assertEquals("Row " + ind, expected[ind].getMillis(), list.get(ind).getStartMillis());
+        }
+    }
+
+    @Test
+    public void testEntriesAreKeptOnlyAfterGet() {
+        CalendarEntryList list = newList();
+        int followingDay = 1;
+        CalendarEntry peeked = list.peek(followingDay);
+        assertNotSame("Peeked entries are not kept", peeked, list.peek(followingDay));
+        assertEquals(peeked.getStartMillis(), list.peek(followingDay).getStartMillis());
+
+        CalendarEntry entry = list.get(followingDay);
+        assertSame(entry, list.get(followingDay));
+        assertSame(entry, list.peek(followingDay));
+        assertSame("Day one entries are not copied", list.get(0), list.peek(0));
+    }
+
+    @Test
+    public void testConcurrentReadersGetTheSameEntries() throws InterruptedException {
+        final CalendarEntryList list = newList();
+        final int threadsCount = 4;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<List<CalendarEntry>> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int ind = 0; ind < threadsCount; ind++) {
+            final List<CalendarEntry> result = new ArrayList<>();
+            results.add(result);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int index = 0; index < list.size(); index++) {
+                        result.add(list.get(index));
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (List<CalendarEntry> result : results) {
+            assertEquals(list.size(), result.size());
+            for (int index = 0; index < list.size(); index++) {
+                assertSame("Row " + index, list.get(index), result.get(index));
+            }
+        }
+    }
+
+    @Test
+    public void testStableIdIsOfTheDayOfTheEvent() {
+        CalendarEvent event = newEvent(1, today.minusDays(2).plusHours(10), today.plusDays(2));
+        long stableId = CalendarEntry.fromEvent(event, today.plusHours(15)).getStableId();
+        assertEquals("Start, moved within a day", stableId,
+                CalendarEntry.fromEvent(event, today.plusHours(8)).getStableId());
+        assertEquals("Following day of the event", stableId, CalendarEntry.fromEvent(event, today).getStableId());
+        assertNotEquals("Next day", stableId, CalendarEntry.fromEvent(event, today.plusDays(1)).getStableId());
+        assertNotEquals("Other instance of the event", stableId, CalendarEntry.fromEvent(
+                newEvent(1, today.minusDays(1).plusHours(10), today.plusDays(3)), today).getStableId());
+    }
+
+    /** A five days event and a single day event on its third day */
+    private CalendarEntryList newList() {
+        List<CalendarEntry> dayOneEntries = new ArrayList<>();
+        dayOneEntries.add(newEntry(1, today.plusHours(10), today.plusDays(4).plusHours(12)));
+        dayOneEntries.add(newEntry(2, today.plusDays(2).plusHours(9), today.plusDays(2).plusHours(10)));
+        Collections.sort(dayOneEntries);
+        return CalendarEntryList.withFollowingDays(dayOneEntries, today.plusDays(30));
+    }
+
+    private static CalendarEntry newEntry(int eventId, DateTime start, DateTime end) {
+        return CalendarEntry.fromEvent(newEvent(eventId, start, end), start);
+    }
+
+    private static CalendarEvent newEvent(int eventId, DateTime start, DateTime end) {
+        CalendarEvent event = new CalendarEvent(null, 0, ZONE, false);
+        event.setEventSource(SOURCE);
+        event.setEventId(eventId);
+        event.setTitle("Event " + eventId);
+        event.setStartDate(start);
+        event.setEndDate(end);
+        return event;
+    }
+}
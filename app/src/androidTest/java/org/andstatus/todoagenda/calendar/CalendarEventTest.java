@@ -0,0 +1,58 @@
+package org.andstatus.todoagenda.calendar;
+
+import org.andstatus.todoagenda.util.DateUtil;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Dates of events, kept as millis and local days */
+public class CalendarEventTest {
+    private static final LocalDate EPOCH = new LocalDate(1970, 1, 1);
+    private static final DateTimeZone SAO_PAULO = DateTimeZone.forID("America/Sao_Paulo");
+
+    @Test
+    public void testLocalDay() {
+        String[] zoneIds = {"UTC", "CET", "America/Sao_Paulo", "Pacific/Kiritimati", "Pacific/Pago_Pago"};
+        for (String zoneId : zoneIds) {
+            DateTimeZone zone = DateTimeZone.forID(zoneId);
+            DateTime date = new DateTime(1969, 12, 30, 22, 0, zone);
+            for (int hour = 0; hour < 24 * 800; hour += 5) {
+                DateTime time = date.plusHours(hour);
+                assertEquals(zoneId + " " + time, Days.daysBetween(EPOCH, time.toLocalDate()).getDays(),
+                        DateUtil.toLocalDay(zone, time.getMillis()));
+            }
+        }
+    }
+
+    @Test
+    public void testAllDayEventInDstGap() {
+        // Clocks were moved forward at midnight, so the day started at 01:00
+        DateTime utcDay = new DateTime(2018, 11, 4, 0, 0, DateTimeZone.UTC);
+        CalendarEvent event = new CalendarEvent(null, 0, SAO_PAULO, true);
+        event.setStartMillis(utcDay.getMillis());
+        assertEquals(new DateTime(2018, 11, 4, 1, 0, SAO_PAULO), event.getStartDate());
+        assertEquals(new DateTime(2018, 11, 5, 0, 0, SAO_PAULO), event.getEndDate());
+        assertEquals(utcDay.getMillis(), event.getStartMillis());
+        assertEquals(utcDay.plusDays(1).getMillis(), event.getEndMillis());
+    }
+
+    @Test
+    public void testPartOfMultiDayEvent() {
+        DateTime today = new DateTime(2018, 11, 3, 0, 0, SAO_PAULO);
+        CalendarEvent event = new CalendarEvent(null, 0, SAO_PAULO, false);
+        event.setStartDate(today.plusHours(19));
+        event.setEndDate(today.plusHours(23));
+        assertFalse(event.isPartOfMultiDayEvent());
+        event.setEndDate(today.plusDays(1).plusHours(7));
+        assertTrue(event.isPartOfMultiDayEvent());
+
+        event.setEndDate(today.plusHours(18));
+        assertEquals("End before start", today.plusHours(19).plusSeconds(1), event.getEndDate());
+    }
+}
@@ -0,0 +1,113 @@
+package org.andstatus.todoagenda.calendar;
+
+import android.provider.CalendarContract.Instances;
+
+import org.andstatus.todoagenda.BaseWidgetTest;
+import org.andstatus.todoagenda.prefs.ApplicationPreferences;
+import org.andstatus.todoagenda.prefs.OrderedEventSource;
+import org.andstatus.todoagenda.provider.EventProviderType;
+import org.andstatus.todoagenda.provider.QueryResult;
+import org.andstatus.todoagenda.provider.QueryRow;
+import org.andstatus.todoagenda.util.DateUtil;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Mapping of rows of an Instances query to events */
+public class CalendarQueryTest extends BaseWidgetTest {
+
+    @Test
+    public void testDuplicateAndHiddenRowsAreSkipped() {
+        provider.startEditing();
+        ApplicationPreferences.setHideBasedOnKeywords(provider.getContext(), "Private");
+        provider.saveSettings();
+
+        DateTime start = DateUtil.now(provider.getSettings().getTimeZone()).withTimeAtStartOfDay().plusHours(9);
+        QueryResult result = newResult();
+        result.addRow(newRow(1, "Meeting", start));
+        // The same instance, e.g. repeated by a join with attendees
+        result.addRow(newRow(1, "Meeting", start));
+        result.addRow(newRow(2, "Private call", start));
+        result.addRow(newRow(3, "Lunch", start.plusHours(3)));
+        // The next instance of the same event
+        result.addRow(newRow(1, "Meeting", start.plusDays(1)));
+        provider.clear();
+        provider.addResult(result);
+
+        List<CalendarEvent> events = newEventProvider().queryList(Instances.CONTENT_URI, null);
+        assertEquals(events.toString(), 3, events.size());
+        assertEvent(events.get(0), 1, start);
+        assertEvent(events.get(1), 3, start.plusHours(3));
+        assertEvent(events.get(2), 1, start.plusDays(1));
+    }
+
+    @Test
+    public void testColumnsOfHiddenFieldsAreNotQueried() {
+        provider.startEditing();
+        ApplicationPreferences.setShowLocation(provider.getContext(), false);
+        ApplicationPreferences.setHideDuplicates(provider.getContext(), false);
+        ApplicationPreferences.setIndicateAlerts(provider.getContext(), false);
+        ApplicationPreferences.setIndicateRecurring(provider.getContext(), false);
+        provider.saveSettings();
+
+        List<String> projection = Arrays.asList(CalendarEventProvider.getProjection(provider.getSettings()));
+        assertTrue(projection.toString(), projection.contains(Instances.TITLE));
+        assertFalse(projection.toString(), projection.contains(Instances.EVENT_LOCATION));
+        assertFalse(projection.toString(), projection.contains(Instances.HAS_ALARM));
+        assertFalse(projection.toString(), projection.contains(Instances.RRULE));
+
+        DateTime start = DateUtil.now(provider.getSettings().getTimeZone()).withTimeAtStartOfDay().plusHours(9);
+        QueryResult result = newResult();
+        result.addRow(newRow(1, "Meeting", start));
+        provider.clear();
+        provider.addResult(result);
+
+        List<CalendarEvent> events = newEventProvider().queryList(Instances.CONTENT_URI, null);
+        assertEquals(events.toString(), 1, events.size());
+        CalendarEvent event = events.get(0);
+        assertEvent(event, 1, start);
+        assertEquals("Meeting", event.getTitle());
+        assertEquals("", event.getLocation());
+        assertFalse(event.isAlarmActive());
+        assertFalse(event.isRecurring());
+    }
+
+    private QueryResult newResult() {
+        return new QueryResult(EventProviderType.CALENDAR, provider.getSettings(),
+                Instances.CONTENT_URI, CalendarEventProvider.getProjection(), null, null, null);
+    }
+
+    private QueryRow newRow(int eventId, String title, DateTime start) {
+        OrderedEventSource source = provider.getFirstActiveEventSource();
+        return new QueryRow()
+                .setCalendarId(source.source.getId())
+                .setEventId(eventId)
+                .setTitle(title)
+                .setBegin(start.getMillis())
+                .setEnd(start.plusHours(1).getMillis())
+                .setAllDay(0)
+                .setEventLocation("Room " + eventId)
+                .setHasAlarm(1)
+                .setRRule("FREQ=DAILY")
+                .setDisplayColor(0xFF00FF00);
+    }
+
+    private CalendarEventProvider newEventProvider() {
+        return new CalendarEventProvider(EventProviderType.CALENDAR, provider.getContext(), provider.getWidgetId()) {
+            {
+                initialiseParameters();
+            }
+        };
+    }
+
+    private static void assertEvent(CalendarEvent event, int eventId, DateTime start) {
+        assertEquals(event.toString(), eventId, event.getEventId());
+        assertEquals(event.toString(), start.getMillis(), event.getStartMillis());
+    }
+}
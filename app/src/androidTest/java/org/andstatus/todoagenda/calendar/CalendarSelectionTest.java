@@ -0,0 +1,51 @@
+package org.andstatus.todoagenda.calendar;
+
+import org.andstatus.todoagenda.BaseWidgetTest;
+import org.andstatus.todoagenda.prefs.ApplicationPreferences;
+import org.andstatus.todoagenda.prefs.EventSource;
+import org.andstatus.todoagenda.prefs.OrderedEventSource;
+import org.andstatus.todoagenda.provider.EventProviderType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CalendarSelectionTest extends BaseWidgetTest {
+    private static final int CALENDARS_COUNT = 35;
+
+    @Test
+    public void testSelectionIsParameterizedAndBuiltOnce() {
+        List<OrderedEventSource> sources = new ArrayList<>();
+        for (int ind = 0; ind < CALENDARS_COUNT; ind++) {
+            sources.add(new OrderedEventSource(new EventSource(EventProviderType.CALENDAR, ind + 1,
+                    "Calendar " + ind, "", 0xFF00FF00, true), ind));
+        }
+        provider.startEditing();
+        ApplicationPreferences.setActiveEventSources(provider.getContext(), sources);
+        provider.saveSettings();
+
+        CalendarEventProvider.Selection selection = newEventProvider().getSelection();
+        assertEquals(CALENDARS_COUNT, selection.selectionArgs.length);
+        assertEquals("35", selection.selectionArgs[CALENDARS_COUNT - 1]);
+        assertTrue(selection.calendarSelection, selection.calendarSelection.contains(" IN (?,?,?"));
+        assertTrue(selection.pastEventsWithColorSelection,
+                selection.pastEventsWithColorSelection.startsWith(selection.calendarSelection));
+        assertSame("Built once for the settings", selection, newEventProvider().getSelection());
+
+        provider.startEditing();
+        ApplicationPreferences.setActiveEventSources(provider.getContext(), sources.subList(0, 2));
+        provider.saveSettings();
+        CalendarEventProvider.Selection changed = newEventProvider().getSelection();
+        assertNotSame("Rebuilt for new settings", selection, changed);
+        assertEquals(2, changed.selectionArgs.length);
+    }
+
+    private CalendarEventProvider newEventProvider() {
+        return new CalendarEventProvider(EventProviderType.CALENDAR, provider.getContext(), provider.getWidgetId());
+    }
+}
@@ -0,0 +1,161 @@
+package org.andstatus.todoagenda.calendar;
+
+import android.content.ContentUris;
+import android.provider.CalendarContract;
+import android.provider.CalendarContract.Calendars;
+
+import org.andstatus.todoagenda.calendar.InstancesCache.InstanceRow;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InstancesCacheTest {
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long START = 2600 * DAY;
+
+    private final CountingLoader loader = new CountingLoader();
+
+    @Before
+    public void setUp() {
+        CalendarEventProvider.invalidateCaches();
+    }
+
+    @Test
+    public void testWidgetsWithSameCalendarsShareOneQuery() {
+        int[] calendars = {1, 2};
+        assertEquals(30, InstancesCache.get(calendars, START, START + 30 * DAY, 0, loader).size());
+        assertEquals(1, loader.loadsCount);
+
+        // Another widget: the same calendars in a different order, and a shorter time range
+        List<InstanceRow> rows = InstancesCache.get(new int[]{2, 1}, START + 5 * DAY, START + 10 * DAY, 0, loader);
+        assertEquals(1, loader.loadsCount);
+        assertEquals(5, rows.size());
+        assertEquals(START + 5 * DAY + DAY / 2, rows.get(0).begin);
+
+        // Only the buckets after the loaded ones are queried
+        assertEquals(40, InstancesCache.get(calendars, START, START + 40 * DAY, 0, loader).size());
+        assertEquals(2, loader.loadsCount);
+        assertTrue(loader.lastFromMillis > START + 30 * DAY - InstancesCache.BUCKET_MILLIS);
+
+        CalendarEventProvider.invalidateCaches();
+        InstancesCache.get(calendars, START + 5 * DAY, START + 10 * DAY, 0, loader);
+        assertEquals("Loaded again after a change", 3, loader.loadsCount);
+    }
+
+    @Test
+    public void testWidgetsWithOverlappingCalendarsShareRows() {
+        InstancesCache.get(new int[]{1, 2}, START, START + 10 * DAY, 0, loader);
+        assertEquals(1, loader.loadsCount);
+
+        assertEquals(10, InstancesCache.get(new int[]{1}, START, START + 10 * DAY, 0, loader).size());
+        assertEquals("Rows of the first calendar are cached", 1, loader.loadsCount);
+
+        assertEquals(20, InstancesCache.get(new int[]{1, 3}, START, START + 10 * DAY, 0, loader).size());
+        assertEquals(2, loader.loadsCount);
+        assertEquals("Only the missing calendar is queried", 3, loader.lastCalendarIds[0]);
+        assertEquals(1, loader.lastCalendarIds.length);
+    }
+
+    @Test
+    public void testOnlyChangedCalendarIsReloaded() {
+        int[] calendars = {1, 2};
+        InstancesCache.get(calendars, START, START + 10 * DAY, 0, loader);
+        assertEquals(1, loader.loadsCount);
+
+        final List<Integer> reloadedCalendars = new ArrayList<>();
+        InstancesCache.reloadCalendars(Collections.singleton(2), new InstancesCache.Loader() {
+            @Override
+            public List<InstanceRow> load(int[] calendarIds, long fromMillis, long toMillis, int columns) {
+                for (int calendarId : calendarIds) {
+                    reloadedCalendars.add(calendarId);
+                }
+                return Collections.singletonList(new InstanceRow(2, 7, "Added", START + DAY, START + 2 * DAY,
+                        false, null, false, false, 0xFF0000FF));
+            }
+        });
+        assertEquals(Collections.singletonList(2), reloadedCalendars);
+
+        List<InstanceRow> rows = InstancesCache.get(calendars, START, START + 10 * DAY, 0, loader);
+        assertEquals("No full reload", 1, loader.loadsCount);
+        assertEquals(11, rows.size());
+        int addedCount = 0;
+        for (InstanceRow row : rows) {
+            if (row.calendarId == 2) {
+                assertEquals(7, row.eventId);
+                addedCount++;
+            }
+        }
+        assertEquals(1, addedCount);
+    }
+
+    @Test
+    public void testDeltaReloadOnlyIfEachChangeNamesItsCalendar() {
+        int[] calendars = {1, 2};
+        InstancesCache.get(calendars, START, START + 10 * DAY, 0, loader);
+        assertEquals(1, loader.loadsCount);
+
+        CalendarChangeTracker.onChange(ContentUris.withAppendedId(Calendars.CONTENT_URI, 2));
+        CalendarChangeTracker.applyPendingChanges(loader);
+        assertEquals(2, loader.loadsCount);
+        assertEquals(1, loader.lastCalendarIds.length);
+        assertEquals(2, loader.lastCalendarIds[0]);
+
+        // A change in an unknown calendar may be in any of them
+        CalendarChangeTracker.onChange(ContentUris.withAppendedId(Calendars.CONTENT_URI, 1));
+        CalendarChangeTracker.onChange(CalendarContract.CONTENT_URI);
+        CalendarChangeTracker.applyPendingChanges(loader);
+        assertEquals(2, loader.loadsCount);
+        InstancesCache.get(calendars, START, START + 10 * DAY, 0, loader);
+        assertEquals("Full reload", 3, loader.loadsCount);
+        assertEquals(2, loader.lastCalendarIds.length);
+    }
+
+    @Test
+    public void testRowsHaveColumnsOfAllWidgets() {
+        int[] calendars = {1};
+        InstancesCache.get(calendars, START, START + 10 * DAY, InstancesCache.LOCATION, loader);
+        assertEquals(1, loader.loadsCount);
+        assertEquals(InstancesCache.LOCATION, loader.lastColumns & InstancesCache.LOCATION);
+
+        InstancesCache.get(calendars, START, START + 10 * DAY, 0, loader);
+        assertEquals("Rows with more columns are used", 1, loader.loadsCount);
+
+        InstancesCache.get(calendars, START, START + 10 * DAY, InstancesCache.ALARM, loader);
+        assertEquals("A column is missing", 2, loader.loadsCount);
+        int both = InstancesCache.LOCATION | InstancesCache.ALARM;
+        assertEquals("Columns, needed by both widgets", both, loader.lastColumns & both);
+
+        InstancesCache.get(calendars, START, START + 10 * DAY, InstancesCache.LOCATION, loader);
+        assertEquals(2, loader.loadsCount);
+    }
+
+    /** An instance of one event at noon of each day. In the first calendar, the event id is the calendar id */
+    private static class CountingLoader implements InstancesCache.Loader {
+        int loadsCount = 0;
+        long lastFromMillis = 0;
+        int[] lastCalendarIds = {};
+        int lastColumns = 0;
+
+        @Override
+        public List<InstanceRow> load(int[] calendarIds, long fromMillis, long toMillis, int columns) {
+            loadsCount++;
+            lastColumns = columns;
+            lastFromMillis = fromMillis;
+            lastCalendarIds = calendarIds;
+            List<InstanceRow> rows = new ArrayList<>();
+            for (long day = fromMillis / DAY; day * DAY < toMillis; day++) {
+                long begin = day * DAY + DAY / 2;
+                rows.add(new InstanceRow(calendarIds[0], calendarIds[0], "Daily", begin, begin + DAY / 24,
+                        false, null, false, true, 0xFF00FF00));
+            }
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.andstatus.todoagenda.calendar;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocalDayStartsTest {
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @Test
+    public void testSameAsLocalDateTimeConversion() {
+        String[] zoneIds = {"CET", "America/Sao_Paulo", "America/Havana", "Asia/Tehran", "Australia/Lord_Howe",
+                "UTC"};
+        long from = new DateTime(2011, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+        for (String zoneId : zoneIds) {
+            DateTimeZone zone = DateTimeZone.forID(zoneId);
+            for (long millis = from; millis < from + 5 * 366 * DAY; millis += DAY) {
+                assertEquals(zoneId + " " + new DateTime(millis, DateTimeZone.UTC),
+                        startOfDayByLocalDateTime(zone, millis), LocalDayStarts.startOfDayMillis(zone, millis));
+            }
+        }
+    }
+
+    @Test
+    public void testMidnightInDstGap() {
+        DateTimeZone zone = DateTimeZone.forID("America/Sao_Paulo");
+        long millis = new DateTime(2014, 10, 19, 0, 0, DateTimeZone.UTC).getMillis();
+        DateTime startOfDay = new DateTime(LocalDayStarts.startOfDayMillis(zone, millis), zone);
+        assertEquals(new DateTime(2014, 10, 19, 1, 0, zone), startOfDay);
+        assertEquals("Cached", startOfDay.getMillis(), LocalDayStarts.startOfDayMillis(zone, millis + DAY / 2));
+    }
+
+    @Test
+    public void testSkippedDay() {
+        DateTimeZone zone = DateTimeZone.forID("Pacific/Apia");
+        long millis = new DateTime(2011, 12, 30, 0, 0, DateTimeZone.UTC).getMillis();
+        assertEquals(new DateTime(2011, 12, 31, 0, 0, zone).getMillis(), LocalDayStarts.startOfDayMillis(zone, millis));
+    }
+
+    /** The conversion, which was used before the cache */
+    private static long startOfDayByLocalDateTime(DateTimeZone zone, long millis) {
+        DateTime utcDate = new DateTime(millis, DateTimeZone.UTC);
+        LocalDateTime ldt = new LocalDateTime()
+                .withYear(utcDate.getYear())
+                .withMonthOfYear(utcDate.getMonthOfYear())
+                .withDayOfMonth(utcDate.getDayOfMonth())
+                .withMillisOfDay(0);
+        int hour = 0;
+        while (zone.isLocalDateTimeGap(ldt)) {
+            ldt = ldt.withHourOfDay(++hour);
+        }
+        return ldt.toDateTime(zone).getMillis();
+    }
+}
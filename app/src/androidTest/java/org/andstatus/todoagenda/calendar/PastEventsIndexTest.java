@@ -0,0 +1,60 @@
+package org.andstatus.todoagenda.calendar;
+
+import org.andstatus.todoagenda.BaseWidgetTest;
+import org.andstatus.todoagenda.prefs.InstanceSettings;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PastEventsIndexTest extends BaseWidgetTest {
+
+    @Test
+    public void testIndexIsExtendedByNewWindowOnly() {
+        InstanceSettings settings = provider.getSettings();
+        CountingLoader loader = new CountingLoader(settings);
+        CalendarEventProvider.invalidateCaches();
+
+        assertEquals(1, PastEventsIndex.getEvents(settings, 1000, loader).size());
+        assertEquals("[0, 1000]", loader.windows.toString());
+
+        assertEquals(2, PastEventsIndex.getEvents(settings, 2000, loader).size());
+        assertEquals("[0, 1000, 1000, 2000]", loader.windows.toString());
+
+        assertEquals("Same time, no query", 2, PastEventsIndex.getEvents(settings, 2000, loader).size());
+        assertEquals(4, loader.windows.size());
+
+        CalendarEventProvider.invalidateCaches();
+        assertEquals(3, PastEventsIndex.getEvents(settings, 3000, loader).size());
+        assertEquals("Rebuilt after a change", "[0, 3000]",
+                loader.windows.subList(4, 6).toString());
+    }
+
+    private static class CountingLoader implements PastEventsIndex.Loader {
+        private final InstanceSettings settings;
+        final List<Long> windows = new ArrayList<>();
+
+        CountingLoader(InstanceSettings settings) {
+            this.settings = settings;
+        }
+
+        @Override
+        public List<CalendarEvent> load(long fromMillis, long toMillis) {
+            windows.add(fromMillis);
+            windows.add(toMillis);
+            // One instance starts in each second, and the previous one overlaps the window
+            List<CalendarEvent> events = new ArrayList<>();
+            for (long start = Math.max(0, fromMillis - 1000); start < toMillis; start += 1000) {
+                CalendarEvent event = new CalendarEvent(settings.getContext(), settings.getWidgetId(),
+                        settings.getTimeZone(), false);
+                event.setEventId(1);
+                event.setStartMillis(start);
+                event.setEndMillis(start + 1000);
+                events.add(event);
+            }
+            return events;
+        }
+    }
+}
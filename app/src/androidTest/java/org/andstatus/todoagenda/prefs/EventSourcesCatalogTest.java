@@ -0,0 +1,51 @@
+package org.andstatus.todoagenda.prefs;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.andstatus.todoagenda.provider.EventProviderType;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventSourcesCatalogTest {
+
+    @Test
+    public void testInitializeFromSavedCatalog() {
+        Context context = ApplicationProvider.getApplicationContext();
+        List<EventSource> calendars = Arrays.asList(
+                new EventSource(EventProviderType.CALENDAR, 11, "Work", "me@example.com", 0xFF0000FF, true),
+                new EventSource(EventProviderType.CALENDAR, 12, "Home", "me@example.com", 0xFF00FF00, true));
+        List<EventSource> taskLists = Collections.singletonList(
+                new EventSource(EventProviderType.DMFS_OPEN_TASKS, 21, "Tasks", "me@example.com", 0xFFFF0000, true));
+        List<OrderedEventSource> sources = OrderedEventSource.fromSources(calendars);
+        sources.addAll(OrderedEventSource.fromSources(taskLists));
+        EventSourcesCatalog saved = new EventSourcesCatalog(sources, Collections.<String>emptySet(),
+                EventSourcesCatalog.getDeniedPermissions(context));
+        try {
+            saved.save(context);
+            EventSourcesCatalog loaded = EventSourcesCatalog.load(context);
+            assertNotNull(loaded);
+            assertFalse(loaded.hasDifferentContent(saved));
+
+            EventProviderType.forget();
+            EventProviderType.initialize(context, false);
+            List<OrderedEventSource> available = EventProviderType.getAvailableSources();
+            assertEquals(OrderedEventSource.toJsonString(sources), OrderedEventSource.toJsonString(available));
+            for (int ind = 0; ind < sources.size(); ind++) {
+                assertEquals("Order of " + available.get(ind), sources.get(ind).order, available.get(ind).order);
+                assertTrue("Available " + available.get(ind), available.get(ind).source.isAvailable);
+            }
+        } finally {
+            EventProviderType.initialize(context, true);
+        }
+    }
+}
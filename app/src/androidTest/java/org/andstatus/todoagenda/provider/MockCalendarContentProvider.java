@@ -4,6 +4,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
+import android.provider.CalendarContract;
 import android.test.mock.MockContentProvider;
 import android.test.mock.MockContentResolver;
 import android.util.Log;
@@ -14,12 +15,14 @@ import androidx.test.core.app.ApplicationProvider;
 import androidx.test.platform.app.InstrumentationRegistry;
 
 import org.andstatus.todoagenda.calendar.CalendarEvent;
+import org.andstatus.todoagenda.calendar.CalendarEventProvider;
 import org.andstatus.todoagenda.prefs.AllSettings;
 import org.andstatus.todoagenda.prefs.ApplicationPreferences;
 import org.andstatus.todoagenda.prefs.InstanceSettings;
 import org.andstatus.todoagenda.prefs.MockSettingsProvider;
 import org.andstatus.todoagenda.prefs.OrderedEventSource;
 import org.andstatus.todoagenda.prefs.SettingsStorage;
+import org.andstatus.todoagenda.task.TaskSnapshots;
 import org.andstatus.todoagenda.testcompat.IsolatedContext;
 import org.andstatus.todoagenda.util.DateUtil;
 import org.andstatus.todoagenda.util.RawResourceUtils;
@@ -29,10 +32,16 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.andstatus.todoagenda.prefs.AllSettings.getStorageKey;
 import static org.andstatus.todoagenda.prefs.InstanceSettings.PREF_WIDGET_ID;
@@ -45,7 +54,12 @@ public class MockCalendarContentProvider extends MockContentProvider {
     final static String TAG = MockCalendarContentProvider.class.getSimpleName();
     private static final int TEST_WIDGET_ID_MIN = 434892;
     private static final String[] ZONE_IDS = {"America/Los_Angeles", "Europe/Moscow", "Asia/Kuala_Lumpur", "UTC"};
+    /** Sort order of the tasks providers, see {@link org.andstatus.todoagenda.task.TaskColumns} */
+    private static final Pattern COALESCE_DESC = Pattern.compile("COALESCE\\((.+)\\) DESC");
     private volatile int queriesCount = 0;
+    private final Map<String, Integer> queriesCountByAuthority = new HashMap<>();
+    /** Time range, queried from the current result of the provider */
+    private final Map<String, long[]> queriedRangeByAuthority = new HashMap<>();
     private final List<QueryResult> results = new CopyOnWriteArrayList<>();
     private final int numberOfOpenTaskSources;
 
@@ -93,8 +107,10 @@ public class MockCalendarContentProvider extends MockContentProvider {
         for(int widgetId : toDelete) {
             instances.remove(widgetId);
             SettingsStorage.delete(ApplicationProvider.getApplicationContext(), getStorageKey(widgetId));
+            TaskSnapshots.onWidgetDeleted(ApplicationProvider.getApplicationContext(), widgetId);
         }
         ApplicationPreferences.setWidgetId(ApplicationProvider.getApplicationContext(), TEST_WIDGET_ID_MIN);
+        CalendarEventProvider.invalidateCaches();
     }
 
     @Override
@@ -127,12 +143,109 @@ public class MockCalendarContentProvider extends MockContentProvider {
         }
 
         Log.i(TAG, "query: " + uri);
+        QueryResult result = nextResult(uri);
+        if (result == null) return null;
+
+        long[] range = timeRangeOf(uri);
+        if (range != null) return query(result, projection, range);
+
+        Matcher matcher = COALESCE_DESC.matcher(sortOrder == null ? "" : sortOrder);
+        return matcher.matches()
+                ? query(result, projection, matcher.group(1).split(",\\s*"))
+                : result.query(projection);
+    }
+
+    /** As the tasks providers, returns rows, sorted by the first not null of the columns, descending */
+    private static Cursor query(QueryResult result, String[] projection, final String[] coalescedColumns) {
+        List<QueryRow> rows = new ArrayList<>(result.getRows());
+        Collections.sort(rows, new Comparator<QueryRow>() {
+            @Override
+            public int compare(QueryRow o1, QueryRow o2) {
+                return Long.compare(coalesce(o2, coalescedColumns), coalesce(o1, coalescedColumns));
+            }
+        });
+        MatrixCursor cursor = new MatrixCursor(projection);
+        for (QueryRow row : rows) {
+            cursor.addRow(row.getArray(projection));
+        }
+        return cursor;
+    }
+
+    /** The last of the columns is a number */
+    private static long coalesce(QueryRow row, String[] columns) {
+        Object[] values = row.getArray(columns);
+        for (int ind = 0; ind < columns.length - 1; ind++) {
+            if (values[ind] != null) return toMillis(values[ind]);
+        }
+        return Long.parseLong(columns[columns.length - 1]);
+    }
+
+    /**
+     * As the Calendar provider, returns only instances, which overlap the time range of the query.
+     * All day events are selected by local days there, so a day is added to both sides of the range
+     */
+    private static Cursor query(QueryResult result, String[] projection, long[] range) {
+        String[] dates = {CalendarContract.Instances.BEGIN, CalendarContract.Instances.END};
+        long dayMillis = TimeUnit.DAYS.toMillis(1);
+        MatrixCursor cursor = new MatrixCursor(projection);
+        for (QueryRow row : result.getRows()) {
+            Object[] values = row.getArray(dates);
+            if (values[0] == null || values[1] == null || (toMillis(values[0]) <= range[1] + dayMillis
+                    && toMillis(values[1]) >= range[0] - dayMillis)) {
+                cursor.addRow(row.getArray(projection));
+            }
+        }
+        return cursor;
+    }
+
+    private static long toMillis(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+    }
+
+    /**
+     * Providers may be queried concurrently, so results are matched by provider, in the order of adding.
+     * Instances queries of adjacent time ranges, e.g. of a growing window, read the same result,
+     * a query of a time, which was already queried, reads the next result
+     */
+    private synchronized QueryResult nextResult(Uri uri) {
         queriesCount++;
-        if (results.size() < queriesCount) {
-            return null;
+        String authority = uri.getAuthority();
+        int count = queriesCountByAuthority.containsKey(authority)
+                ? queriesCountByAuthority.get(authority)
+                : 0;
+        long[] range = timeRangeOf(uri);
+        long[] queriedRange = queriedRangeByAuthority.get(authority);
+        if (count > 0 && range != null && queriedRange != null
+                && (range[0] >= queriedRange[1] || range[1] <= queriedRange[0])) {
+            queriedRangeByAuthority.put(authority, new long[]{Math.min(range[0], queriedRange[0]),
+                    Math.max(range[1], queriedRange[1])});
+            return resultOf(uri, count - 1);
+        }
+        queriesCountByAuthority.put(authority, count + 1);
+        if (range == null) {
+            queriedRangeByAuthority.remove(authority);
         } else {
-            return results.get(queriesCount - 1).query(projection);
+            queriedRangeByAuthority.put(authority, range);
         }
+        return resultOf(uri, count);
+    }
+
+    /** @return begin and end of the Instances query, or null if the query has no time range */
+    private static long[] timeRangeOf(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < 4 || !segments.get(1).equals("when")) return null;
+
+        return new long[]{Long.parseLong(segments.get(2)), Long.parseLong(segments.get(3))};
+    }
+
+    private QueryResult resultOf(Uri uri, int skip) {
+        for (QueryResult result : results) {
+            if (result.getProviderType().getAuthority().equals(uri.getAuthority())) {
+                if (skip == 0) return result;
+                skip--;
+            }
+        }
+        return null;
     }
 
     public void addResults(List<QueryResult> results) {
@@ -149,7 +262,12 @@ public class MockCalendarContentProvider extends MockContentProvider {
     }
 
     public void addResult(QueryResult result) {
+        for (QueryRow row : result.getRows()) {
+            addMissingCalendarId(result.getProviderType(), row);
+        }
         results.add(result);
+        CalendarEventProvider.invalidateCaches();
+        TaskSnapshots.invalidateAll(getContext());
     }
 
     public void addRow(CalendarEvent event) {
@@ -171,7 +289,23 @@ public class MockCalendarContentProvider extends MockContentProvider {
         if (results.isEmpty()) {
             addResult(new QueryResult(EventProviderType.CALENDAR, getSettings().getWidgetId(), DateUtil.now(getSettings().getTimeZone())));
         }
+        addMissingCalendarId(results.get(0).getProviderType(), queryRow);
         results.get(0).addRow(queryRow);
+        CalendarEventProvider.invalidateCaches();
+        TaskSnapshots.invalidateAll(getContext());
+    }
+
+    /**
+     * Rows of the Calendar provider always have a calendar id, cached rows are kept by it.
+     * Rows of older test data don't have it, so they are in the first calendar of the widget
+     */
+    private void addMissingCalendarId(EventProviderType type, QueryRow row) {
+        if (type != EventProviderType.CALENDAR || row.hasColumn(CalendarContract.Instances.CALENDAR_ID)) return;
+
+        List<OrderedEventSource> sources = getSettings().getActiveEventSources(type);
+        if (!sources.isEmpty()) {
+            row.setCalendarId(sources.get(0).source.getId());
+        }
     }
 
     @NonNull
@@ -179,15 +313,24 @@ public class MockCalendarContentProvider extends MockContentProvider {
         return AllSettings.instanceFromId(getContext(), getWidgetId());
     }
 
-    public void clear() {
+    public synchronized void clear() {
         queriesCount = 0;
+        queriesCountByAuthority.clear();
+        queriedRangeByAuthority.clear();
         results.clear();
+        CalendarEventProvider.invalidateCaches();
+        TaskSnapshots.invalidateAll(getContext());
     }
 
     public int getQueriesCount() {
         return queriesCount;
     }
 
+    public synchronized int getQueriesCount(String authority) {
+        Integer count = queriesCountByAuthority.get(authority);
+        return count == null ? 0 : count;
+    }
+
     public int getWidgetId() {
         return widgetId.get();
     }
@@ -0,0 +1,116 @@
+package org.andstatus.todoagenda.task;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import org.andstatus.todoagenda.BaseWidgetTest;
+import org.andstatus.todoagenda.R;
+import org.andstatus.todoagenda.prefs.OrderedEventSource;
+import org.andstatus.todoagenda.provider.EventProviderType;
+import org.andstatus.todoagenda.task.samsung.SamsungTasksContract;
+import org.andstatus.todoagenda.task.samsung.SamsungTasksProvider;
+import org.andstatus.todoagenda.util.DateUtil;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/** Benchmark of mapping of task rows to tasks */
+public class TaskRowMapperTest extends BaseWidgetTest {
+    private static final String TAG = TaskRowMapperTest.class.getSimpleName();
+    private static final int ROWS_COUNT = 10000;
+    private static final TaskColumns COLUMNS = new TaskColumns(SamsungTasksContract.Tasks.PROVIDER_URI,
+            SamsungTasksContract.Tasks.COLUMN_LIST_ID,
+            SamsungTasksContract.Tasks.COLUMN_ID,
+            SamsungTasksContract.Tasks.COLUMN_TITLE,
+            null,
+            SamsungTasksContract.Tasks.COLUMN_DUE_DATE,
+            SamsungTasksContract.Tasks.COLUMN_COLOR,
+            R.array.task_list_colors);
+
+    @Test
+    public void testRowMapperOnLargeCursor() {
+        SamsungTasksProvider taskProvider = new SamsungTasksProvider(EventProviderType.SAMSUNG_TASKS,
+                provider.getContext(), provider.getWidgetId()) {
+            {
+                initialiseParameters();
+            }
+        };
+
+        Cursor cursor = newCursor();
+        long startedAt = System.nanoTime();
+        List<TaskEvent> perRowLookups = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            perRowLookups.add(createWithPerRowLookups(cursor));
+        }
+        long perRowLookupsNanos = System.nanoTime() - startedAt;
+        cursor.close();
+
+        cursor = newCursor();
+        startedAt = System.nanoTime();
+        List<TaskEvent> mapped = new ArrayList<>();
+        AbstractTaskProvider.RowMapper mapper = taskProvider.newRowMapper(cursor, COLUMNS);
+        while (cursor.moveToNext()) {
+            TaskSnapshots.Row row = mapper.map(cursor);
+            mapped.add(row.toTask(provider.getSettings().getTimeZone(),
+                    provider.getSettings().getActiveEventSource(EventProviderType.SAMSUNG_TASKS, row.listId)));
+        }
+        long mappedNanos = System.nanoTime() - startedAt;
+        cursor.close();
+
+        Log.i(TAG, ROWS_COUNT + " rows, per row lookups: " + perRowLookupsNanos / ROWS_COUNT +
+                " ns/row, row mapper: " + mappedNanos / ROWS_COUNT + " ns/row");
+        assertEquals(ROWS_COUNT, mapped.size());
+        for (int ind = 0; ind < ROWS_COUNT; ind++) {
+            TaskEvent expected = perRowLookups.get(ind);
+            TaskEvent actual = mapped.get(ind);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getTitle(), actual.getTitle());
+            assertEquals(expected.getStartDate(), actual.getStartDate());
+            assertEquals(expected.getDueDate(), actual.getDueDate());
+            assertEquals(expected.getColor(), actual.getColor());
+            assertEquals(expected.getEventSource(), actual.getEventSource());
+        }
+    }
+
+    private Cursor newCursor() {
+        DateTime today = DateUtil.now(provider.getSettings().getTimeZone()).withTimeAtStartOfDay();
+        MatrixCursor cursor = new MatrixCursor(COLUMNS.projection);
+        for (int ind = 0; ind < ROWS_COUNT; ind++) {
+            cursor.addRow(new Object[]{
+                    ind % 5 + 1,
+                    ind + 1,
+                    "Task " + ind,
+                    ind % 4 == 0 ? null : today.plusHours(ind).getMillis(),
+                    ind % 2 == 0 ? null : 0xFF00FF00 + ind});
+        }
+        return cursor;
+    }
+
+    /** How rows were mapped before the row mapper */
+    private TaskEvent createWithPerRowLookups(Cursor cursor) {
+        OrderedEventSource source = provider.getSettings()
+                .getActiveEventSource(EventProviderType.SAMSUNG_TASKS,
+                        cursor.getInt(cursor.getColumnIndex(SamsungTasksContract.Tasks.COLUMN_LIST_ID)));
+        TaskEvent task = new TaskEvent(provider.getSettings().getTimeZone());
+        task.setEventSource(source);
+        task.setId(cursor.getLong(cursor.getColumnIndex(SamsungTasksContract.Tasks.COLUMN_ID)));
+        task.setTitle(cursor.getString(cursor.getColumnIndex(SamsungTasksContract.Tasks.COLUMN_TITLE)));
+        int dueDateIdx = cursor.getColumnIndex(SamsungTasksContract.Tasks.COLUMN_DUE_DATE);
+        task.setDates(null, cursor.isNull(dueDateIdx) ? null : cursor.getLong(dueDateIdx));
+        int colorIdx = cursor.getColumnIndex(SamsungTasksContract.Tasks.COLUMN_COLOR);
+        int accountId = cursor.getInt(cursor.getColumnIndex(SamsungTasksContract.Tasks.COLUMN_LIST_ID));
+        if (cursor.isNull(colorIdx)) {
+            int[] fixedColors = provider.getContext().getResources().getIntArray(R.array.task_list_colors);
+            task.setColor(fixedColors[accountId % fixedColors.length]);
+        } else {
+            int color = cursor.getInt(colorIdx);
+            task.setColor(0xFF000000 | color);
+        }
+        return task;
+    }
+}
@@ -0,0 +1,83 @@
+package org.andstatus.todoagenda.task;
+
+import org.andstatus.todoagenda.BaseWidgetTest;
+import org.andstatus.todoagenda.prefs.InstanceSettings;
+import org.andstatus.todoagenda.provider.EventProviderType;
+import org.andstatus.todoagenda.provider.QueryResultsStorage;
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TaskSnapshotsTest extends BaseWidgetTest {
+    private static final String AUTHORITY = EventProviderType.DMFS_OPEN_TASKS.getAuthority();
+
+    @Override
+    protected int getNumberOfOpenTasksSources() {
+        return 1;
+    }
+
+    @Test
+    public void testRefreshesDontQueryUntilProviderChanged() throws Exception {
+        QueryResultsStorage inputs = provider.loadResults(InstrumentationRegistry.getInstrumentation().getContext(),
+                org.andstatus.todoagenda.tests.R.raw.past_due_header_with_tasks);
+        provider.addResults(inputs.getResults());
+
+        factory.onDataSetChanged();
+        int entriesCount = factory.getCount();
+        assertEquals(1, provider.getQueriesCount(AUTHORITY));
+
+        factory.onDataSetChanged();
+        assertEquals("Tasks from the snapshot", 1, provider.getQueriesCount(AUTHORITY));
+        assertEquals(entriesCount, factory.getCount());
+
+        TaskSnapshots.onProviderChanged(provider.getContext(),
+                EventProviderType.SAMSUNG_TASKS.getAuthority());
+        factory.onDataSetChanged();
+        assertEquals("Other provider changed", 1, provider.getQueriesCount(AUTHORITY));
+
+        TaskSnapshots.onProviderChanged(provider.getContext(), AUTHORITY);
+        factory.onDataSetChanged();
+        assertEquals("Tasks provider changed", 2, provider.getQueriesCount(AUTHORITY));
+    }
+
+    @Test
+    public void testSnapshotValidity() {
+        InstanceSettings settings = provider.getSettings();
+        long loadedAt = TimeUnit.DAYS.toMillis(18000);
+        long coveredUntil = loadedAt + TimeUnit.DAYS.toMillis(30);
+        TaskSnapshots.Snapshot snapshot = new TaskSnapshots.Snapshot(
+                Collections.<TaskSnapshots.Row>emptyList(), 0, 0, coveredUntil, loadedAt, settings);
+
+        assertTrue(snapshot.isValid(settings, coveredUntil, loadedAt + 1));
+        assertFalse("Range moved beyond the rows", snapshot.isValid(settings, coveredUntil + 1, loadedAt + 1));
+        assertFalse("Too old", snapshot.isValid(settings,
+                coveredUntil, loadedAt + TaskSnapshots.MAX_AGE_MILLIS + 1));
+        assertFalse("Clock moved back", snapshot.isValid(settings, coveredUntil, loadedAt - 1));
+    }
+
+    @Test
+    public void testSnapshotFromFileIsCheckedByRowsCount() throws JSONException {
+        InstanceSettings settings = provider.getSettings();
+        long loadedAt = TimeUnit.DAYS.toMillis(18000);
+        TaskSnapshots.Row row = new TaskSnapshots.Row(1, 2, "Task", null, loadedAt, 0);
+        TaskSnapshots.Snapshot snapshot = new TaskSnapshots.Snapshot(Collections.singletonList(row), 2, 3,
+                loadedAt + TimeUnit.DAYS.toMillis(30), loadedAt, settings);
+        assertTrue("Queried by this process", snapshot.isChecked());
+
+        TaskSnapshots.Snapshot fromFile = TaskSnapshots.Snapshot.fromJson(snapshot.toJson());
+        assertFalse("Saved by an earlier process", fromFile.isChecked());
+        assertFalse("Rows were added or deleted", fromFile.check(4));
+        assertFalse(fromFile.isChecked());
+        assertTrue(fromFile.check(3));
+        assertTrue(fromFile.isChecked());
+        assertEquals(1, fromFile.rows.size());
+    }
+}
@@ -7,9 +7,12 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.util.Log;
 
+import org.andstatus.todoagenda.calendar.CalendarEventProvider;
 import org.andstatus.todoagenda.prefs.AllSettings;
+import org.andstatus.todoagenda.task.TaskSnapshots;
 
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.List;
 
 public class AppWidgetProvider extends android.appwidget.AppWidgetProvider {
@@ -69,18 +72,52 @@ public class AppWidgetProvider extends android.appwidget.AppWidgetProvider {
         super.onDeleted(context, appWidgetIds);
         for (int widgetId : appWidgetIds) {
             AllSettings.delete(context, widgetId);
+            CalendarEventProvider.onWidgetDeleted(widgetId);
+            TaskSnapshots.onWidgetDeleted(context, widgetId);
         }
     }
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
         Log.d(TAG, "onUpdate, widgetIds:" + asList(appWidgetIds) + ", context:" + context);
+        final List<RemoteViewsFactory> liveFactories = new ArrayList<>();
         for (int widgetId : appWidgetIds) {
-            RemoteViewsFactory.updateWidget(context, widgetId, null);
-            notifyWidgetDataChanged(context, widgetId);
+            RemoteViewsFactory factory = RemoteViewsFactory.getLiveFactory(widgetId);
+            if (factory == null) {
+                RemoteViewsFactory.updateWidget(context, widgetId, null);
+                notifyWidgetDataChanged(context, widgetId);
+            } else {
+                liveFactories.add(factory);
+            }
+        }
+        if (!liveFactories.isEmpty()) {
+            reloadLiveFactories(context.getApplicationContext(), liveFactories);
         }
     }
 
+    /** The host is notified only of widgets, which content changed */
+    private void reloadLiveFactories(final Context context, final List<RemoteViewsFactory> factories) {
+        final PendingResult pendingResult = goAsync();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (RemoteViewsFactory factory : factories) {
+                        if (factory.reloadIfChanged()) {
+                            notifyWidgetDataChanged(context, factory.getWidgetId());
+                        } else {
+                            Log.d(TAG, factory.getWidgetId() + " onUpdate, content unchanged, skipped");
+                        }
+                    }
+                } finally {
+                    if (pendingResult != null) {
+                        pendingResult.finish();
+                    }
+                }
+            }
+        }, TAG).start();
+    }
+
     public static List<Integer> asList(final int[] is) {
         return new AbstractList<Integer>() {
             public Integer get(int i) { return is[i]; }
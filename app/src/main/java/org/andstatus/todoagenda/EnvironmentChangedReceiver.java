@@ -11,9 +11,11 @@ import android.os.Build;
 import android.util.Log;
 import android.widget.RemoteViews;
 
+import org.andstatus.todoagenda.calendar.CalendarEventProvider;
 import org.andstatus.todoagenda.prefs.AllSettings;
 import org.andstatus.todoagenda.prefs.InstanceSettings;
 import org.andstatus.todoagenda.provider.EventProviderType;
+import org.andstatus.todoagenda.task.TaskSnapshots;
 import org.andstatus.todoagenda.util.DateUtil;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -46,6 +48,13 @@ public class EnvironmentChangedReceiver extends BroadcastReceiver {
             }
             context.registerReceiver(receiver, filter);
 
+            // Providers of events may be installed, when the widgets are already shown
+            IntentFilter packageFilter = new IntentFilter();
+            packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+            packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+            packageFilter.addDataScheme("package");
+            context.registerReceiver(receiver, packageFilter);
+
             EnvironmentChangedReceiver oldReceiver = registeredReceiver.getAndSet(receiver);
             if (oldReceiver != null) {
                 oldReceiver.unRegister(context);
@@ -132,6 +141,26 @@ public class EnvironmentChangedReceiver extends BroadcastReceiver {
             case RemoteViewsFactory.ACTION_PERIODIC_ALARM:
                 updateAllWidgets(context);
                 break;
+            case Intent.ACTION_PROVIDER_CHANGED:
+                String authority = intent.getData() == null ? null : intent.getData().getAuthority();
+                // Changes of other providers, e.g. of tasks, don't invalidate cached calendar data
+                if (authority == null || authority.equals(EventProviderType.CALENDAR.getAuthority())) {
+                    CalendarEventProvider.onProviderChanged(intent.getData());
+                }
+                EventProviderType.onProviderChanged(context, authority);
+                TaskSnapshots.onProviderChanged(context, authority);
+                updateAllWidgets(context);
+                break;
+            case Intent.ACTION_PACKAGE_ADDED:
+            case Intent.ACTION_PACKAGE_REPLACED:
+                EventProviderType.onPackageChanged(context,
+                        intent.getData() == null ? null : intent.getData().getSchemeSpecificPart());
+                break;
+            case Intent.ACTION_TIMEZONE_CHANGED:
+                CalendarEventProvider.invalidateCaches();
+                TaskSnapshots.invalidateAll(context);
+                updateAllWidgets(context);
+                break;
             default:
                 int widgetId2 = intent == null
                     ? 0
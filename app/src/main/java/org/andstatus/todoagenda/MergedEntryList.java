@@ -0,0 +1,159 @@
+package org.andstatus.todoagenda;
+
+import org.andstatus.todoagenda.widget.LazyEntryList;
+import org.andstatus.todoagenda.widget.WidgetEntry;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Sorted entries of several sorted lists. Entries are not copied: each row is one long,
+ * referring to an entry of one of the lists, so entries, which the lists create lazily
+ * (e.g. following days of multi-day events), are created only when their rows are accessed.
+ * Entries may be added to the end of the list.
+ */
+class MergedEntryList extends AbstractList<WidgetEntry> implements LazyEntryList {
+    private static final int INDEX_BITS = 32;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+    /** The last list is for the added entries */
+    private final List<List<? extends WidgetEntry>> lists;
+    private final List<WidgetEntry> added;
+    private long[] rows;
+    private int size = 0;
+
+    private MergedEntryList(List<List<? extends WidgetEntry>> lists, List<WidgetEntry> added, int capacity) {
+        this.lists = lists;
+        this.added = added;
+        rows = new long[capacity + 1];
+    }
+
+    private static MergedEntryList newList(List<? extends List<? extends WidgetEntry>> sortedLists) {
+        int size = 0;
+        List<List<? extends WidgetEntry>> lists = new ArrayList<>(sortedLists.size() + 1);
+        for (List<? extends WidgetEntry> list : sortedLists) {
+            size += list.size();
+            lists.add(list);
+        }
+        List<WidgetEntry> added = new ArrayList<>();
+        lists.add(added);
+        return new MergedEntryList(lists, added, size);
+    }
+
+    static MergedEntryList of(List<? extends WidgetEntry> entries) {
+        MergedEntryList list = newList(Collections.singletonList(entries));
+        for (int ind = 0; ind < entries.size(); ind++) {
+            list.addRow(0, ind);
+        }
+        return list;
+    }
+
+    /** K-way merge of lists, each of which is already sorted */
+    static MergedEntryList mergeSorted(List<? extends List<? extends WidgetEntry>> sortedLists) {
+        MergedEntryList merged = newList(sortedLists);
+        PriorityQueue<SortedListCursor> queue = new PriorityQueue<>();
+        for (int listIndex = 0; listIndex < sortedLists.size(); listIndex++) {
+            List<? extends WidgetEntry> list = sortedLists.get(listIndex);
+            if (!list.isEmpty()) {
+                queue.add(new SortedListCursor(list, listIndex));
+            }
+        }
+        while (!queue.isEmpty()) {
+            SortedListCursor cursor = queue.poll();
+            merged.addRow(cursor.listIndex, cursor.index);
+            if (cursor.moveToNext()) {
+                queue.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    /** Keeps the first entry of each group of duplicates, preserving order of the entries */
+    MergedEntryList withoutDuplicates() {
+        MergedEntryList deduplicated = new MergedEntryList(lists, added, size);
+        Set<WidgetEntry.DuplicatesKey> shown = new HashSet<>();
+        for (int ind = 0; ind < size; ind++) {
+            if (shown.add(peek(ind).getDuplicatesKey())) {
+                deduplicated.addRow(rows[ind]);
+            }
+        }
+        return deduplicated;
+    }
+
+    private void addRow(int listIndex, int index) {
+        addRow(((long) listIndex << INDEX_BITS) | index);
+    }
+
+    private void addRow(long row) {
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+        }
+        rows[size++] = row;
+    }
+
+    @Override
+    public boolean add(WidgetEntry entry) {
+        added.add(entry);
+        addRow(lists.size() - 1, added.size() - 1);
+        return true;
+    }
+
+    @Override
+    public WidgetEntry get(int index) {
+        long row = rowAt(index);
+        return lists.get((int) (row >>> INDEX_BITS)).get((int) (row & INDEX_MASK));
+    }
+
+    @Override
+    public WidgetEntry peek(int index) {
+        long row = rowAt(index);
+        return LazyEntryList.peek(lists.get((int) (row >>> INDEX_BITS)), (int) (row & INDEX_MASK));
+    }
+
+    private long rowAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return rows[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private static class SortedListCursor implements Comparable<SortedListCursor> {
+        private final List<? extends WidgetEntry> list;
+        private final int listIndex;
+        private int index = 0;
+        /** The current entry, while it is compared. Lazily created entries are not kept by the list */
+        private WidgetEntry current;
+
+        SortedListCursor(List<? extends WidgetEntry> list, int listIndex) {
+            this.list = list;
+            this.listIndex = listIndex;
+            current = LazyEntryList.peek(list, index);
+        }
+
+        boolean moveToNext() {
+            if (++index < list.size()) {
+                current = LazyEntryList.peek(list, index);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int compareTo(SortedListCursor other) {
+            int result = current.compareTo(other.current);
+            // Equal entries are taken in the order of the lists, as a stable sort did
+            return result == 0 ? Integer.signum(listIndex - other.listIndex) : result;
+        }
+    }
+}
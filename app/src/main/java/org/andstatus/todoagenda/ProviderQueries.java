@@ -0,0 +1,189 @@
+package org.andstatus.todoagenda;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import org.andstatus.todoagenda.provider.EventProviderType;
+import org.andstatus.todoagenda.widget.WidgetEntry;
+import org.andstatus.todoagenda.widget.WidgetEntryVisualizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs queries of all event providers of a widget concurrently, so their latencies don't add up.
+ * A provider, which failed or didn't answer in time, keeps its last good result
+ * instead of blanking its part of the widget.
+ * Threads are shared by all widgets, so their number doesn't grow with the number of widgets.
+ * Queries, which didn't answer in time, are cancelled, so a provider, which hangs, doesn't keep the threads.
+ */
+class ProviderQueries {
+    private static final String TAG = ProviderQueries.class.getSimpleName();
+    static final long TIMEOUT_MILLIS = 5000;
+    /** One thread per provider type, and as many for queries, which didn't answer in time and still run */
+    static final int MAX_THREADS = 2 * EventProviderType.values().length;
+    private static final ThreadPoolExecutor executor = newExecutor();
+
+    private final int widgetId;
+    private final long timeoutMillis;
+    private final Map<EventProviderType, List<? extends WidgetEntry>> lastGoodEntries = new ConcurrentHashMap<>();
+    private volatile long timeoutsCount = 0;
+
+    ProviderQueries(int widgetId, long timeoutMillis) {
+        this.widgetId = widgetId;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /** Queries wait in the queue, when all threads are busy. Threads are stopped, when they are idle */
+    private static ThreadPoolExecutor newExecutor() {
+        final AtomicInteger threadsCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG + "-" + threadsCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Only entries of event providers are queried concurrently, other visualizers are queried in the calling thread
+     * @return entries of each visualizer, in the order of the visualizers
+     * @throws OperationCanceledException if the signal was cancelled
+     */
+    List<List<? extends WidgetEntry>> query(List<WidgetEntryVisualizer<? extends WidgetEntry>> visualizers,
+                                            CancellationSignal signal) {
+        final List<CancellationSignal> providerSignals = new ArrayList<>();
+        List<ProviderQuery> queries = new ArrayList<>();
+        for (WidgetEntryVisualizer<? extends WidgetEntry> visualizer : visualizers) {
+            if (visualizer.getProviderType() == EventProviderType.EMPTY) {
+                queries.add(null);
+                continue;
+            }
+            CancellationSignal providerSignal = new CancellationSignal();
+            providerSignals.add(providerSignal);
+            visualizer.setCancellationSignal(providerSignal);
+            queries.add(new ProviderQuery(visualizer, providerSignal).submitTo(executor));
+        }
+        signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                for (CancellationSignal providerSignal : providerSignals) {
+                    providerSignal.cancel();
+                }
+            }
+        });
+
+        List<List<? extends WidgetEntry>> results = new ArrayList<>();
+        for (int ind = 0; ind < visualizers.size(); ind++) {
+            ProviderQuery query = queries.get(ind);
+            if (query == null) {
+                results.add(visualizers.get(ind).queryEventEntries());
+                continue;
+            }
+            EventProviderType type = query.visualizer.getProviderType();
+            try {
+                List<? extends WidgetEntry> entries = query.get(timeoutMillis);
+                lastGoodEntries.put(type, entries);
+                results.add(entries);
+            } catch (TimeoutException e) {
+                timeoutsCount++;
+                query.cancel();
+                Log.w(TAG, widgetId + " " + type + " didn't answer in " + timeoutMillis + " ms, showing last result");
+                results.add(getLastGoodEntries(type));
+            } catch (ExecutionException e) {
+                signal.throwIfCanceled();
+                Log.w(TAG, widgetId + " " + type + " query failed, showing last result", e.getCause());
+                results.add(getLastGoodEntries(type));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                signal.cancel();
+                throw new OperationCanceledException();
+            }
+        }
+        return results;
+    }
+
+    private List<? extends WidgetEntry> getLastGoodEntries(EventProviderType type) {
+        List<? extends WidgetEntry> entries = lastGoodEntries.get(type);
+        return entries == null ? Collections.<WidgetEntry>emptyList() : entries;
+    }
+
+    long getTimeoutsCount() {
+        return timeoutsCount;
+    }
+
+    /** Query of one provider. Its time is counted from its start, not from the start of all queries */
+    private static class ProviderQuery implements Callable<List<? extends WidgetEntry>> {
+        final WidgetEntryVisualizer<? extends WidgetEntry> visualizer;
+        final CancellationSignal signal;
+        private volatile long startedAt = 0;
+        private Future<List<? extends WidgetEntry>> future;
+        private ExecutionException rejected;
+
+        ProviderQuery(WidgetEntryVisualizer<? extends WidgetEntry> visualizer, CancellationSignal signal) {
+            this.visualizer = visualizer;
+            this.signal = signal;
+        }
+
+        ProviderQuery submitTo(ThreadPoolExecutor executor) {
+            try {
+                future = executor.submit(this);
+            } catch (RejectedExecutionException e) {
+                // The executor was shut down
+                rejected = new ExecutionException(e);
+            }
+            return this;
+        }
+
+        /** A query, which waits in the queue, will not start */
+        void cancel() {
+            signal.cancel();
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        @Override
+        public List<? extends WidgetEntry> call() {
+            startedAt = System.currentTimeMillis();
+            return visualizer.queryEventEntries();
+        }
+
+        List<? extends WidgetEntry> get(long timeoutMillis)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (rejected != null) throw rejected;
+
+            while (true) {
+                long started = startedAt;
+                long waitMillis = started == 0
+                        ? timeoutMillis
+                        : started + timeoutMillis - System.currentTimeMillis();
+                try {
+                    return future.get(Math.max(0, waitMillis), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // The query, which has started while we waited, gets its full time
+                    if (started != 0 || startedAt == 0) throw e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.andstatus.todoagenda;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+/**
+ * Coalesces reload requests of one widget, so that N overlapping triggers
+ * (onDataSetChanged, updateWidget...) result in one query pass.
+ * A trigger, which came while a reload was running, is never dropped:
+ * it cancels the running reload (at most {@link #MAX_CONSECUTIVE_CANCELS} times in a row)
+ * and is served by one trailing reload, started not earlier than {@link #debounceMillis}
+ * after the previous reload finished.
+ */
+class ReloadScheduler {
+    private static final String TAG = ReloadScheduler.class.getSimpleName();
+    /** Bounds the latency of a reload, which is cancelled again and again by new triggers */
+    static final int MAX_CONSECUTIVE_CANCELS = 3;
+
+    interface Reload {
+        /** Stops with {@link OperationCanceledException} when the signal is cancelled */
+        void run(CancellationSignal signal);
+    }
+
+    private final int widgetId;
+    private final long debounceMillis;
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    private long requestsCount = 0;
+    private long servedRequestsCount = 0;
+    private boolean running = false;
+    private CancellationSignal runningSignal = null;
+    private int consecutiveCancels = 0;
+    private long prevReloadFinishedAt = 0;
+
+    private volatile long reloadsCount = 0;
+    private volatile long mergedTriggersCount = 0;
+    private volatile long cancelledReloadsCount = 0;
+
+    ReloadScheduler(int widgetId, long debounceMillis) {
+        this.widgetId = widgetId;
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Returns after a reload, which started after this request, has completed
+     * (executed by this or by a concurrent caller)
+     *
+     * @return number of triggers, which were served by the reload executed in this call,
+     * or 0 if the request was served by another caller's reload
+     */
+    long requestReload(Reload reload) {
+        long ticket;
+        CancellationSignal signalToCancel = null;
+        synchronized (lock) {
+            ticket = ++requestsCount;
+            if (runningSignal != null && consecutiveCancels < MAX_CONSECUTIVE_CANCELS) {
+                consecutiveCancels++;
+                signalToCancel = runningSignal;
+                runningSignal = null;
+            }
+        }
+        if (signalToCancel != null) {
+            signalToCancel.cancel();
+        }
+        while (true) {
+            long servedBefore;
+            long servedUpTo;
+            CancellationSignal signal = new CancellationSignal();
+            synchronized (lock) {
+                while (running) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return 0;
+                    }
+                }
+                if (servedRequestsCount >= ticket) {
+                    return 0;
+                }
+                running = true;
+                servedBefore = servedRequestsCount;
+            }
+            servedUpTo = servedBefore;
+            boolean completed = false;
+            try {
+                debounce();
+                synchronized (lock) {
+                    servedUpTo = requestsCount;
+                    // Triggers, which came before this point, will be served without cancelling
+                    runningSignal = signal;
+                }
+                reload.run(signal);
+                completed = true;
+            } catch (OperationCanceledException e) {
+                cancelledReloadsCount++;
+                Log.d(TAG, widgetId + " reload cancelled, total cancelled:" + cancelledReloadsCount);
+            } finally {
+                synchronized (lock) {
+                    if (completed) {
+                        servedRequestsCount = servedUpTo;
+                        consecutiveCancels = 0;
+                    }
+                    runningSignal = null;
+                    prevReloadFinishedAt = System.currentTimeMillis();
+                    running = false;
+                    lock.notifyAll();
+                }
+            }
+            if (completed) {
+                long merged = servedUpTo - servedBefore;
+                reloadsCount++;
+                mergedTriggersCount += merged - 1;
+                Log.d(TAG, widgetId + " reload served " + merged + " trigger" + (merged == 1 ? "" : "s") +
+                        ", total reloads:" + reloadsCount + ", merged triggers:" + mergedTriggersCount);
+                return merged;
+            }
+        }
+    }
+
+    /** Triggers, arriving during the sleep, will be served by the coming reload */
+    private void debounce() {
+        long sleepMillis;
+        synchronized (lock) {
+            sleepMillis = prevReloadFinishedAt + debounceMillis - System.currentTimeMillis();
+        }
+        if (sleepMillis > 0 && sleepMillis <= debounceMillis) {
+            EnvironmentChangedReceiver.sleep((int) sleepMillis);
+        }
+    }
+
+    long getReloadsCount() {
+        return reloadsCount;
+    }
+
+    /** Number of triggers, which didn't cause a separate query pass */
+    long getMergedTriggersCount() {
+        return mergedTriggersCount;
+    }
+
+    /** Number of reloads, which were stopped by newer triggers and whose results were discarded */
+    long getCancelledReloadsCount() {
+        return cancelledReloadsCount;
+    }
+}
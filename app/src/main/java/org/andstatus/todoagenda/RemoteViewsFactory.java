@@ -7,6 +7,8 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.net.Uri;
+import android.os.CancellationSignal;
+import android.text.format.DateFormat;
 import android.util.Log;
 import android.view.ContextThemeWrapper;
 import android.widget.RemoteViews;
@@ -22,20 +24,21 @@ import org.andstatus.todoagenda.provider.EventProviderType;
 import org.andstatus.todoagenda.util.CalendarIntentUtil;
 import org.andstatus.todoagenda.util.DateUtil;
 import org.andstatus.todoagenda.util.PermissionsUtil;
-import org.andstatus.todoagenda.widget.DayHeader;
+import org.andstatus.todoagenda.widget.CalendarEntry;
 import org.andstatus.todoagenda.widget.DayHeaderVisualizer;
 import org.andstatus.todoagenda.widget.LastEntry;
 import org.andstatus.todoagenda.widget.LastEntryVisualizer;
-import org.andstatus.todoagenda.widget.TimeSection;
+import org.andstatus.todoagenda.widget.LazyEntryList;
 import org.andstatus.todoagenda.widget.WidgetEntry;
 import org.andstatus.todoagenda.widget.WidgetEntryVisualizer;
 import org.andstatus.todoagenda.widget.WidgetHeaderLayout;
-import org.joda.time.DateTime;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.andstatus.todoagenda.util.CalendarIntentUtil.createOpenCalendarEventPendingIntent;
 import static org.andstatus.todoagenda.util.CalendarIntentUtil.createOpenCalendarPendingIntent;
@@ -50,6 +53,8 @@ public class RemoteViewsFactory implements RemoteViewsService.RemoteViewsFactory
     private static final String TAG = RemoteViewsFactory.class.getSimpleName();
 
     static final int MIN_MILLIS_BETWEEN_RELOADS = 500;
+    /** The host calls {@link #onDataSetChanged()} soon after it was notified of a preloaded snapshot */
+    private static final int MAX_MILLIS_TO_USE_PRELOADED = 5000;
     private static final int MAX_NUMBER_OF_WIDGETS = 100;
     private static final int REQUEST_CODE_EMPTY = 1;
     private static final int REQUEST_CODE_ADD_EVENT = 2;
@@ -63,20 +68,37 @@ public class RemoteViewsFactory implements RemoteViewsService.RemoteViewsFactory
     static final String ACTION_REFRESH = PACKAGE + ".action.REFRESH";
     static final String ACTION_PERIODIC_ALARM = PACKAGE + ".action.PERIODIC_ALARM";
 
+    /** Factories, currently bound to a widget host, by widgetId */
+    private static final Map<Integer, RemoteViewsFactory> liveFactories = new ConcurrentHashMap<>();
+
     private final Context context;
     private final int widgetId;
-    private volatile List<WidgetEntry> widgetEntries = new ArrayList<>();
-    private volatile List<WidgetEntryVisualizer<? extends WidgetEntry>> visualizers = new ArrayList<>();
-    private volatile long prevReloadFinishedAt = 0;
+    private volatile WidgetSnapshot snapshot;
+    private final ReloadScheduler reloadScheduler;
+    private final ProviderQueries providerQueries;
+    private volatile long publishedChangesCount = 0;
+    /** Snapshot, published by {@link #reloadIfChanged()}, which the next {@link #onDataSetChanged()} may show */
+    private final AtomicReference<WidgetSnapshot> preloaded = new AtomicReference<>();
 
     public RemoteViewsFactory(Context context, int widgetId) {
         this.context = context;
         this.widgetId = widgetId;
+        reloadScheduler = new ReloadScheduler(widgetId, MIN_MILLIS_BETWEEN_RELOADS);
+        providerQueries = new ProviderQueries(widgetId, ProviderQueries.TIMEOUT_MILLIS);
+        List<WidgetEntryVisualizer<? extends WidgetEntry>> visualizers = new ArrayList<>();
         visualizers.add(new LastEntryVisualizer(context, widgetId));
+        List<WidgetEntry> widgetEntries = new ArrayList<>();
         widgetEntries.add(new LastEntry(NOT_LOADED, DateUtil.now(getSettings().getTimeZone())));
+        snapshot = new WidgetSnapshot(widgetEntries, visualizers, getSettings().getTimeZone(), 0, 0);
+        liveFactories.put(widgetId, this);
         logEvent("Init");
     }
 
+    @Nullable
+    static RemoteViewsFactory getLiveFactory(int widgetId) {
+        return liveFactories.get(widgetId);
+    }
+
     private void logEvent(String message) {
         Log.d(TAG, widgetId + " " + message);
     }
@@ -88,17 +110,20 @@ public class RemoteViewsFactory implements RemoteViewsService.RemoteViewsFactory
 
     public void onDestroy() {
         logEvent("onDestroy");
+        liveFactories.remove(widgetId, this);
     }
 
     public int getCount() {
-        logEvent("getCount:" + widgetEntries.size());
-        return widgetEntries.size();
+        int count = snapshot.entries.size();
+        logEvent("getCount:" + count);
+        return count;
     }
 
     public RemoteViews getViewAt(int position) {
-        if (position < widgetEntries.size()) {
-            WidgetEntry entry = widgetEntries.get(position);
-            for (WidgetEntryVisualizer<? extends WidgetEntry> visualizer : visualizers) {
+        WidgetSnapshot snapshot = this.snapshot;
+        if (position < snapshot.entries.size()) {
+            WidgetEntry entry = snapshot.entries.get(position);
+            for (WidgetEntryVisualizer<? extends WidgetEntry> visualizer : snapshot.visualizers) {
                 RemoteViews views = visualizer.getRemoteViews(entry, position);
                 if (views != null) return views;
             }
@@ -114,25 +139,113 @@ public class RemoteViewsFactory implements RemoteViewsService.RemoteViewsFactory
 
     @Override
     public void onDataSetChanged() {
+        WidgetSnapshot preloadedSnapshot = preloaded.getAndSet(null);
+        // Any reload after the preload makes a newer snapshot, which the host may not show yet
+        if (preloadedSnapshot != null && preloadedSnapshot == snapshot &&
+                System.currentTimeMillis() - preloadedSnapshot.builtAt < MAX_MILLIS_TO_USE_PRELOADED) {
+            logEvent("onDataSetChanged, already reloaded, " + preloadedSnapshot);
+            return;
+        }
         logEvent("onDataSetChanged");
         reload();
     }
 
-    private void reload() {
+    /**
+     * Reloads the widget entries without notifying the widget host
+     * @return true if the content changed, so the host needs to be notified
+     */
+    boolean reloadIfChanged() {
+        WidgetSnapshot published = reload();
+        if (published == null) return false;
+
+        preloaded.set(published);
+        return true;
+    }
+
+    /** @return snapshot, published by this call, or null if the content didn't change or no reload was done */
+    @Nullable
+    private WidgetSnapshot reload() {
         if (!AllSettings.isWidgetAllowed(widgetId)) {
             logEvent("reload, skip as the widget is not allowed");
-            return;
+            return null;
         }
-        long prevReloadMillis = Math.abs(System.currentTimeMillis() - prevReloadFinishedAt);
-        if (prevReloadMillis < MIN_MILLIS_BETWEEN_RELOADS) {
-            logEvent("reload, skip as done " + prevReloadMillis + " ms ago");
-        } else {
-            visualizers = getVisualizers();
-            this.widgetEntries = queryWidgetEntries(getSettings());
-            logEvent("reload, visualizers:" + visualizers.size() + ", entries:" + this.widgetEntries.size());
-            prevReloadFinishedAt = System.currentTimeMillis();
+        final AtomicReference<WidgetSnapshot> published = new AtomicReference<>();
+        reloadScheduler.requestReload(new ReloadScheduler.Reload() {
+            @Override
+            public void run(CancellationSignal signal) {
+                InstanceSettings settings = getSettings();
+                List<WidgetEntryVisualizer<? extends WidgetEntry>> visualizers = getVisualizers();
+                // The snapshot keeps the lazy lists, their entries are created, when they are shown
+                List<WidgetEntry> widgetEntries = queryWidgetEntries(settings, visualizers, signal);
+                // Partial results of a cancelled reload are never published
+                signal.throwIfCanceled();
+                WidgetSnapshot previous = snapshot;
+                snapshot = new WidgetSnapshot(widgetEntries, visualizers, settings.getTimeZone(),
+                        previous.generation + 1,
+                        fingerprintOf(settings, widgetEntries, DateUtil.now(settings.getTimeZone()).getMillis()));
+                if (snapshot.fingerprint == previous.fingerprint) {
+                    logEvent("reload, content unchanged, " + snapshot);
+                    return;
+                }
+                publishedChangesCount++;
+                published.set(snapshot);
+                logEvent("reload, " + snapshot);
+                updateWidget(context, widgetId, RemoteViewsFactory.this);
+            }
+        });
+        return published.get();
+    }
+
+    /**
+     * Hash of everything, which {@link #getViewAt(int)} and the widget header show, including the locale,
+     * the time format and the configuration (e.g. night mode and font scale) of the device,
+     * so equal fingerprints mean that redrawing the widget is not needed
+     */
+    static long fingerprintOf(InstanceSettings settings, List<WidgetEntry> entries, long nowMillis) {
+        long hash = settings.toJson().toString().hashCode();
+        hash = 31 * hash + settings.getTimeZone().getID().hashCode();
+        hash = 31 * hash + Locale.getDefault().toString().hashCode();
+        hash = 31 * hash + (DateFormat.is24HourFormat(settings.getContext()) ? 1 : 0);
+        hash = 31 * hash + settings.getContext().getResources().getConfiguration().hashCode();
+        hash = 31 * hash + DateUtil.toLocalDay(settings.getTimeZone(), nowMillis);
+        for (int ind = 0; ind < entries.size(); ind++) {
+            WidgetEntry entry = LazyEntryList.peek(entries, ind);
+            hash = 31 * hash + entry.getStableId();
+            hash = 31 * hash + entry.getStartMillis();
+            hash = 31 * hash + entry.getEndMillis();
+            hash = 31 * hash + entry.getTitle().hashCode();
+            hash = 31 * hash + entry.getLocation().hashCode();
+            hash = 31 * hash + entry.getColor();
+            hash = 31 * hash + entry.getStartDaySection(nowMillis).ordinal();
+            hash = 31 * hash + entry.getEndTimeSection(nowMillis).ordinal();
+            if (entry instanceof CalendarEntry) {
+                CalendarEntry calendarEntry = (CalendarEntry) entry;
+                hash = 31 * hash + (calendarEntry.isAllDay() ? 1 : 0);
+                hash = 31 * hash + (calendarEntry.isAlarmActive() ? 1 : 0);
+                hash = 31 * hash + (calendarEntry.isRecurring() ? 1 : 0);
+            }
         }
-        updateWidget(context, widgetId, this);
+        return hash == 0 ? 1 : hash;
+    }
+
+    int getWidgetId() {
+        return widgetId;
+    }
+
+    long getPublishedChangesCount() {
+        return publishedChangesCount;
+    }
+
+    long getReloadsCount() {
+        return reloadScheduler.getReloadsCount();
+    }
+
+    long getMergedTriggersCount() {
+        return reloadScheduler.getMergedTriggersCount();
+    }
+
+    long getCancelledReloadsCount() {
+        return reloadScheduler.getCancelledReloadsCount();
     }
 
     static void updateWidget(Context context, int widgetId, @Nullable RemoteViewsFactory factory) {
@@ -146,10 +259,11 @@ public class RemoteViewsFactory implements RemoteViewsService.RemoteViewsFactory
             InstanceSettings settings = AllSettings.instanceFromId(context, widgetId);
             RemoteViews rv = new RemoteViews(context.getPackageName(), R.layout.widget_initial);
 
-            configureWidgetHeader(settings, rv, factory != null && factory.getCount() == 0);
+            WidgetSnapshot snapshot = factory == null ? null : factory.snapshot;
+            configureWidgetHeader(settings, rv, snapshot != null && snapshot.entries.isEmpty());
             configureWidgetEntriesList(settings, context, widgetId, rv);
             if (factory != null) {
-                factory.configureGotoToday(settings, rv, factory.getTomorrowsPosition(), factory.getTodaysPosition());
+                factory.configureGotoToday(settings, rv, snapshot.tomorrowsPosition, snapshot.todaysPosition);
             }
 
             appWidgetManager.updateAppWidget(widgetId, rv);
@@ -173,98 +287,44 @@ public class RemoteViewsFactory implements RemoteViewsService.RemoteViewsFactory
         return visualizers;
     }
 
-    private int getTodaysPosition() {
-        for (int ind = 0; ind < getWidgetEntries().size() - 1; ind++) {
-            if (getWidgetEntries().get(ind).getStartDaySection() != TimeSection.PAST) return ind;
-        }
-        return getWidgetEntries().size() - 1;
-    }
-
-    private int getTomorrowsPosition() {
-        for (int ind = 0; ind < getWidgetEntries().size() - 1; ind++) {
-            if (getWidgetEntries().get(ind).getStartDaySection() == TimeSection.FUTURE) return ind;
-        }
-        return getWidgetEntries().size() > 0 ? 0 : -1;
+    private List<WidgetEntry> queryWidgetEntries(InstanceSettings settings,
+                                                 List<WidgetEntryVisualizer<? extends WidgetEntry>> visualizers,
+                                                 CancellationSignal signal) {
+        MergedEntryList eventEntries = MergedEntryList.mergeSorted(providerQueries.query(visualizers, signal));
+        List<WidgetEntry> widgetEntries = settings.getHideDuplicates() ? eventEntries.withoutDuplicates() : eventEntries;
+        // The last entry is on the day of the last event, so it never needs a day header of its own
+        LastEntry.addLast(widgetEntries);
+        return settings.getShowDayHeaders()
+                ? WidgetEntryList.withDayHeaders(widgetEntries,
+                    DateUtil.now(settings.getTimeZone()).withTimeAtStartOfDay(),
+                    settings.getShowPastEventsUnderOneHeader(), settings.getShowDaysWithoutEvents())
+                : widgetEntries;
     }
 
-    private List<WidgetEntry> queryWidgetEntries(InstanceSettings settings) {
-        List<WidgetEntry> eventEntries = new ArrayList<>();
-        for (WidgetEntryVisualizer<?> visualizer : visualizers) {
-            eventEntries.addAll(visualizer.queryEventEntries());
-        }
-        Collections.sort(eventEntries);
-        List<WidgetEntry> deduplicated = settings.getHideDuplicates() ? hideDuplicates(eventEntries) : eventEntries;
-        List<WidgetEntry> widgetEntries = settings.getShowDayHeaders() ? addDayHeaders(deduplicated) : deduplicated;
-        LastEntry.addLast(widgetEntries);
-        return widgetEntries;
-    }
-
-    private List<WidgetEntry> hideDuplicates(List<WidgetEntry> inputEntries) {
-        List<WidgetEntry> deduplicated = new ArrayList<>();
-        List<WidgetEntry> hidden = new ArrayList<>();
-        for(int ind1 = 0; ind1 < inputEntries.size(); ind1++) {
-            WidgetEntry inputEntry = inputEntries.get(ind1);
-            if (!hidden.contains(inputEntry)) {
-                deduplicated.add(inputEntry);
-                for(int ind2 = ind1 + 1; ind2 < inputEntries.size(); ind2++) {
-                    WidgetEntry entry2 = inputEntries.get(ind2);
-                    if (!hidden.contains(entry2) && inputEntry.duplicates(entry2)) {
-                        hidden.add(entry2);
-                    }
-                }
-            }
-        }
-        return deduplicated;
-    }
-
-    private List<WidgetEntry> addDayHeaders(List<WidgetEntry> listIn) {
-        List<WidgetEntry> listOut = new ArrayList<>();
-        if (!listIn.isEmpty()) {
-            InstanceSettings settings = getSettings();
-            DateTime today = DateUtil.now(getSettings().getTimeZone()).withTimeAtStartOfDay();
-            DayHeader curDayBucket = new DayHeader(DateUtil.DATETIME_MIN);
-            boolean pastEventsHeaderAdded = false;
-            for (WidgetEntry entry : listIn) {
-                DateTime nextStartOfDay = entry.getStartDay();
-                if (settings.getShowPastEventsUnderOneHeader() && nextStartOfDay.isBefore(today)) {
-                    if(!pastEventsHeaderAdded) {
-                        listOut.add(curDayBucket);
-                        pastEventsHeaderAdded = true;
-                    }
-                } else if (!nextStartOfDay.isEqual(curDayBucket.getStartDay())) {
-                    if (settings.getShowDaysWithoutEvents()) {
-                        addEmptyDayHeadersBetweenTwoDays(listOut, curDayBucket.getStartDay(), nextStartOfDay);
-                    }
-                    curDayBucket = new DayHeader(nextStartOfDay);
-                    listOut.add(curDayBucket);
-                }
-                listOut.add(entry);
-            }
-        }
-        return listOut;
+    /** Keeps the first entry of each group of duplicates, preserving order of the entries */
+    static List<WidgetEntry> hideDuplicates(List<WidgetEntry> inputEntries) {
+        return MergedEntryList.of(inputEntries).withoutDuplicates();
     }
 
     public void logWidgetEntries(String tag) {
-        for (int ind = 0; ind < getWidgetEntries().size(); ind++) {
-            WidgetEntry widgetEntry = getWidgetEntries().get(ind);
+        List<WidgetEntry> entries = snapshot.entries;
+        for (int ind = 0; ind < entries.size(); ind++) {
+            WidgetEntry widgetEntry = entries.get(ind);
             Log.v(tag, String.format("%02d ", ind) + widgetEntry.toString());
         }
     }
 
     List<? extends WidgetEntry> getWidgetEntries() {
-        return widgetEntries;
+        return snapshot.entries;
     }
 
-    private void addEmptyDayHeadersBetweenTwoDays(List<WidgetEntry> entries, DateTime fromDayExclusive, DateTime toDayExclusive) {
-        DateTime emptyDay = fromDayExclusive.plusDays(1);
-        DateTime today = DateUtil.now(getSettings().getTimeZone()).withTimeAtStartOfDay();
-        if (emptyDay.isBefore(today)) {
-            emptyDay = today;
-        }
-        while (emptyDay.isBefore(toDayExclusive)) {
-            entries.add(new DayHeader(emptyDay));
-            emptyDay = emptyDay.plusDays(1);
-        }
+    WidgetSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /** Generation of the currently published entries, see {@link WidgetSnapshot#generation} */
+    long getGeneration() {
+        return snapshot.generation;
     }
 
     public RemoteViews getLoadingView() {
@@ -273,7 +333,7 @@ public class RemoteViewsFactory implements RemoteViewsService.RemoteViewsFactory
 
     public int getViewTypeCount() {
         int result = 0;
-        for (WidgetEntryVisualizer<?> visualizer : visualizers) {
+        for (WidgetEntryVisualizer<?> visualizer : snapshot.visualizers) {
             result += visualizer.getViewTypeCount();
         }
         logEvent("getViewTypeCount:" + result);
@@ -281,15 +341,15 @@ public class RemoteViewsFactory implements RemoteViewsService.RemoteViewsFactory
     }
 
     public long getItemId(int position) {
-        logEvent("getItemId: " + position);
-        if (position < widgetEntries.size()) {
-            return position + 1;
+        List<WidgetEntry> entries = snapshot.entries;
+        if (position < entries.size()) {
+            return entries.get(position).getStableId();
         }
         return 0;
     }
 
     public boolean hasStableIds() {
-        return false;
+        return true;
     }
 
     private static void configureWidgetHeader(InstanceSettings settings, RemoteViews rv, boolean noEntries) {
@@ -0,0 +1,120 @@
+package org.andstatus.todoagenda;
+
+import org.andstatus.todoagenda.util.DateUtil;
+import org.andstatus.todoagenda.widget.DayHeader;
+import org.andstatus.todoagenda.widget.LazyEntryList;
+import org.andstatus.todoagenda.widget.WidgetEntry;
+import org.joda.time.DateTime;
+import org.joda.time.Days;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entries of a widget interleaved with day headers. Headers are not stored as objects:
+ * each row is one int, and a {@link DayHeader} is created when its row is accessed, i.e. shown by
+ * {@link RemoteViewsFactory#getViewAt(int)}. So many empty days
+ * (see {@link org.andstatus.todoagenda.prefs.InstanceSettings#getShowDaysWithoutEvents()}) cost four bytes each.
+ */
+class WidgetEntryList extends AbstractList<WidgetEntry> implements LazyEntryList {
+    private static final int KIND_SHIFT = 30;
+    private static final int PAYLOAD_MASK = (1 << KIND_SHIFT) - 1;
+    /** Payload is an index in {@link #entries} */
+    private static final int ENTRY = 0;
+    /** Payload is a number of days since {@link #firstDay} */
+    private static final int DAY_HEADER = 1 << KIND_SHIFT;
+    /** The header of past events, shown under one header */
+    private static final int PAST_HEADER = 2 << KIND_SHIFT;
+
+    private final List<WidgetEntry> entries;
+    private final DateTime firstDay;
+    private int[] rows;
+    private int size = 0;
+
+    private WidgetEntryList(List<WidgetEntry> entries, DateTime firstDay) {
+        this.entries = entries;
+        this.firstDay = firstDay;
+        rows = new int[entries.size() * 2 + 1];
+    }
+
+    /**
+     * @param entries sorted entries
+     * @param today start of today
+     */
+    static WidgetEntryList withDayHeaders(List<WidgetEntry> entries, DateTime today,
+                                          boolean pastEventsUnderOneHeader, boolean daysWithoutEvents) {
+        DateTime firstDay = today;
+        DateTime firstStartOfDay = entries.isEmpty() ? today : LazyEntryList.peek(entries, 0).getStartDay();
+        if (firstStartOfDay.isBefore(today)) {
+            firstDay = firstStartOfDay;
+        }
+        WidgetEntryList list = new WidgetEntryList(entries, firstDay);
+        boolean pastEventsHeaderAdded = false;
+        int prevDay = -1;
+        DateTime prevStartOfDay = null;
+        for (int ind = 0; ind < entries.size(); ind++) {
+            DateTime nextStartOfDay = LazyEntryList.peek(entries, ind).getStartDay();
+            if (pastEventsUnderOneHeader && nextStartOfDay.isBefore(today)) {
+                if (!pastEventsHeaderAdded) {
+                    list.addRow(PAST_HEADER);
+                    pastEventsHeaderAdded = true;
+                }
+            } else if (prevStartOfDay == null || !nextStartOfDay.isEqual(prevStartOfDay)) {
+                int nextDay = Days.daysBetween(firstDay, nextStartOfDay).getDays();
+                if (daysWithoutEvents) {
+                    int emptyDay = Math.max(prevDay + 1, Days.daysBetween(firstDay, today).getDays());
+                    for (; emptyDay < nextDay; emptyDay++) {
+                        list.addRow(DAY_HEADER | emptyDay);
+                    }
+                }
+                list.addRow(DAY_HEADER | nextDay);
+                prevDay = nextDay;
+                prevStartOfDay = nextStartOfDay;
+            }
+            list.addRow(ENTRY | ind);
+        }
+        return list;
+    }
+
+    private void addRow(int row) {
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+        }
+        rows[size++] = row;
+    }
+
+    @Override
+    public WidgetEntry get(int index) {
+        int row = rowAt(index);
+        return isEntry(row) ? entries.get(row & PAYLOAD_MASK) : newDayHeader(row);
+    }
+
+    @Override
+    public WidgetEntry peek(int index) {
+        int row = rowAt(index);
+        return isEntry(row) ? LazyEntryList.peek(entries, row & PAYLOAD_MASK) : newDayHeader(row);
+    }
+
+    private int rowAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return rows[index];
+    }
+
+    private static boolean isEntry(int row) {
+        return (row & ~PAYLOAD_MASK) == ENTRY;
+    }
+
+    private DayHeader newDayHeader(int row) {
+        return (row & ~PAYLOAD_MASK) == PAST_HEADER
+                ? new DayHeader(DateUtil.DATETIME_MIN)
+                : new DayHeader(firstDay.plusDays(row & PAYLOAD_MASK));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
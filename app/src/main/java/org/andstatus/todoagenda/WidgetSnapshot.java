@@ -0,0 +1,80 @@
+package org.andstatus.todoagenda;
+
+import org.andstatus.todoagenda.util.DateUtil;
+import org.andstatus.todoagenda.widget.LazyEntryList;
+import org.andstatus.todoagenda.widget.WidgetEntry;
+import org.andstatus.todoagenda.widget.WidgetEntryVisualizer;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable result of one reload: the entries together with the visualizers, which show them.
+ * It is published as a whole, so readers on binder threads never see a mix of two reloads.
+ * The entries are lazy lists (see {@link LazyEntryList}), which create entries, when they are shown.
+ */
+final class WidgetSnapshot {
+    final List<WidgetEntry> entries;
+    final List<WidgetEntryVisualizer<? extends WidgetEntry>> visualizers;
+    final int todaysPosition;
+    final int tomorrowsPosition;
+    /** Number of the reload, which built this snapshot. Increases with each reload */
+    final long generation;
+    final long builtAt;
+    final long fingerprint;
+    private final DateTimeZone zone;
+    /** Local day numbers (days since the epoch) of the days, which have entries, ascending */
+    private final long[] days;
+    /** Position of the first entry of each of the {@link #days} */
+    private final int[] dayFirstPositions;
+
+    /** @param zone time zone of the entries, which defines today and day boundaries */
+    WidgetSnapshot(List<WidgetEntry> entries, List<WidgetEntryVisualizer<? extends WidgetEntry>> visualizers,
+                   DateTimeZone zone, long generation, long fingerprint) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.visualizers = Collections.unmodifiableList(visualizers);
+        this.zone = zone;
+        this.generation = generation;
+        this.builtAt = System.currentTimeMillis();
+        this.fingerprint = fingerprint;
+
+        long today = DateUtil.toLocalDay(zone, DateUtil.now(zone).getMillis());
+        int todays = -1;
+        int tomorrows = -1;
+        long[] days = new long[entries.size()];
+        int[] dayFirstPositions = new int[entries.size()];
+        int daysCount = 0;
+        for (int ind = 0; ind < entries.size(); ind++) {
+            long day = DateUtil.toLocalDay(zone, LazyEntryList.peek(entries, ind).getStartMillis());
+            if (daysCount == 0 || day > days[daysCount - 1]) {
+                days[daysCount] = day;
+                dayFirstPositions[daysCount] = ind;
+                daysCount++;
+            }
+            // The last entry is not a target to scroll to
+            if (ind < entries.size() - 1) {
+                if (todays < 0 && day >= today) todays = ind;
+                if (tomorrows < 0 && day > today) tomorrows = ind;
+            }
+        }
+        todaysPosition = todays < 0 ? entries.size() - 1 : todays;
+        tomorrowsPosition = tomorrows < 0 ? (entries.isEmpty() ? -1 : 0) : tomorrows;
+        this.days = Arrays.copyOf(days, daysCount);
+        this.dayFirstPositions = Arrays.copyOf(dayFirstPositions, daysCount);
+    }
+
+    /** @return position of the first entry of the day, or -1 if the day has no entries */
+    int getFirstPositionOfDay(DateTime day) {
+        int ind = Arrays.binarySearch(days, DateUtil.toLocalDay(zone, day.getMillis()));
+        return ind < 0 ? -1 : dayFirstPositions[ind];
+    }
+
+    @Override
+    public String toString() {
+        return "WidgetSnapshot{generation:" + generation + ", entries:" + entries.size() +
+                ", visualizers:" + visualizers.size() + '}';
+    }
+}
@@ -0,0 +1,118 @@
+package org.andstatus.todoagenda.calendar;
+
+import android.net.Uri;
+import android.provider.CalendarContract;
+import android.provider.CalendarContract.Calendars;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Changes in the Calendar provider, which are applied to the {@link InstancesCache} before it is read.
+ * Only rows of the changed calendars are reloaded, if each pending change named its calendar,
+ * i.e. its Uri is a Uri of a calendar. Any other change reloads the whole cache:
+ * a change, which cannot be attributed to calendars, may be in any of them.
+ */
+class CalendarChangeTracker {
+    private static final String TAG = CalendarChangeTracker.class.getSimpleName();
+
+    /** Readers of the cache wait, while changes are applied */
+    private static final Object applyLock = new Object();
+    private static final Object pendingLock = new Object();
+    private static volatile boolean hasPendingChanges = false;
+    /** Calendars, named by the pending changes */
+    private static final Set<Integer> changedCalendars = new HashSet<>();
+    /** Some of the pending changes didn't name their calendars */
+    private static boolean unknownChanges = false;
+    private static final AtomicLong deltaReloadsCount = new AtomicLong();
+    private static final AtomicLong fullReloadsCount = new AtomicLong();
+
+    /** Something has changed in the Calendar provider. The Uri is of the changed data, if known */
+    static void onChange(@Nullable Uri uri) {
+        int calendarId = calendarIdOf(uri);
+        synchronized (pendingLock) {
+            if (calendarId == 0) {
+                unknownChanges = true;
+            } else {
+                changedCalendars.add(calendarId);
+            }
+            hasPendingChanges = true;
+        }
+    }
+
+    /** The cache is reloaded as a whole, so pending changes are applied */
+    static void onFullReload() {
+        synchronized (pendingLock) {
+            clearPendingChanges();
+        }
+        fullReloadsCount.incrementAndGet();
+    }
+
+    /** Applies pending changes to the cache, before it is read. Other readers wait for this */
+    static void applyPendingChanges(InstancesCache.Loader loader) {
+        if (!hasPendingChanges) return;
+
+        synchronized (applyLock) {
+            Set<Integer> changed;
+            boolean fullReload;
+            synchronized (pendingLock) {
+                if (!hasPendingChanges) return;
+
+                changed = new HashSet<>(changedCalendars);
+                fullReload = unknownChanges;
+                clearPendingChanges();
+            }
+            if (fullReload) {
+                Log.d(TAG, "Calendars of some changes are not known");
+                fullReload();
+                return;
+            }
+            try {
+                InstancesCache.reloadCalendars(changed, loader);
+                deltaReloadsCount.incrementAndGet();
+                Log.d(TAG, "Reloaded changed calendars " + changed);
+            } catch (RuntimeException e) {
+                fullReload();
+                throw e;
+            }
+        }
+    }
+
+    private static void clearPendingChanges() {
+        changedCalendars.clear();
+        unknownChanges = false;
+        hasPendingChanges = false;
+    }
+
+    private static void fullReload() {
+        InstancesCache.invalidateAll();
+        fullReloadsCount.incrementAndGet();
+    }
+
+    /** @return 0 if the Uri is not of a calendar */
+    static int calendarIdOf(@Nullable Uri uri) {
+        if (uri == null || !CalendarContract.AUTHORITY.equals(uri.getAuthority())) return 0;
+
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !Calendars.CONTENT_URI.getLastPathSegment().equals(segments.get(0))) return 0;
+
+        try {
+            return Integer.parseInt(segments.get(1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static long getDeltaReloadsCount() {
+        return deltaReloadsCount.get();
+    }
+
+    static long getFullReloadsCount() {
+        return fullReloadsCount.get();
+    }
+}
@@ -0,0 +1,154 @@
+package org.andstatus.todoagenda.calendar;
+
+import org.andstatus.todoagenda.widget.CalendarEntry;
+import org.andstatus.todoagenda.widget.LazyEntryList;
+import org.andstatus.todoagenda.widget.WidgetEntry;
+import org.joda.time.DateTime;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Sorted calendar entries, where a multi-day event is kept as a single range: its entry of the first day.
+ * Entries of the following days are not stored as objects: each one is a row of one long,
+ * and a {@link CalendarEntry} is created when its row is accessed for the first time.
+ * The list is read by binder threads of the widget host at the same time.
+ */
+class CalendarEntryList extends AbstractList<CalendarEntry> implements LazyEntryList {
+    private static final int OFFSET_BITS = 32;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private final List<CalendarEntry> dayOneEntries;
+    private long[] rows;
+    private int size = 0;
+    /** Entries of the following days, which were accessed by {@link #get(int)}, by row. Null, if there are none */
+    private AtomicReferenceArray<CalendarEntry> created;
+
+    private CalendarEntryList(List<CalendarEntry> dayOneEntries) {
+        this.dayOneEntries = dayOneEntries;
+        rows = new long[dayOneEntries.size() + 1];
+    }
+
+    /**
+     * Following days of multi-day events are merged with the sorted day one entries,
+     * so they are never sorted together with all other entries
+     * @param dayOneEntries sorted entries of the first days of events
+     * @param endOfTimeRange no entries are created after this time
+     */
+    static CalendarEntryList withFollowingDays(List<CalendarEntry> dayOneEntries, DateTime endOfTimeRange) {
+        CalendarEntryList list = new CalendarEntryList(dayOneEntries);
+        PriorityQueue<FollowingDays> following = new PriorityQueue<>();
+        int dayOneIndex = 0;
+        while (dayOneIndex < dayOneEntries.size() || !following.isEmpty()) {
+            if (following.isEmpty() || (dayOneIndex < dayOneEntries.size() &&
+                    following.peek().compareTo(dayOneEntries.get(dayOneIndex)) >= 0)) {
+                CalendarEntry dayOneEntry = dayOneEntries.get(dayOneIndex);
+                list.addRow(dayOneIndex, 0);
+                FollowingDays days = new FollowingDays(dayOneIndex++, dayOneEntry, endOfTimeRange);
+                if (days.hasNext()) {
+                    following.add(days);
+                }
+            } else {
+                FollowingDays days = following.poll();
+                list.addRow(days.dayOneIndex, days.offset);
+                if (days.moveToNext()) {
+                    following.add(days);
+                }
+            }
+        }
+        if (list.size > dayOneEntries.size()) {
+            list.created = new AtomicReferenceArray<>(list.size);
+        }
+        return list;
+    }
+
+    private void addRow(int dayOneIndex, int offset) {
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+        }
+        rows[size++] = ((long) dayOneIndex << OFFSET_BITS) | offset;
+    }
+
+    @Override
+    public CalendarEntry get(int index) {
+        CalendarEntry entry = peek(index);
+        if ((rows[index] & OFFSET_MASK) == 0) return entry;
+
+        // Another thread may have created the entry at the same time, only one of them is kept
+        return created.compareAndSet(index, null, entry) ? entry : created.get(index);
+    }
+
+    @Override
+    public CalendarEntry peek(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        long row = rows[index];
+        CalendarEntry dayOneEntry = dayOneEntries.get((int) (row >>> OFFSET_BITS));
+        int offset = (int) (row & OFFSET_MASK);
+        if (offset == 0) return dayOneEntry;
+
+        CalendarEntry entry = created.get(index);
+        return entry == null
+                ? CalendarEntry.fromEvent(dayOneEntry.getEvent(), followingDay(dayOneEntry, offset))
+                : entry;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private static DateTime followingDay(CalendarEntry dayOneEntry, int offset) {
+        return dayOneEntry.getStartDay().plusDays(offset).withTimeAtStartOfDay();
+    }
+
+    /** Days following the first day of a multi-day event. Only the start of the next day is kept */
+    private static class FollowingDays implements Comparable<FollowingDays> {
+        private final int dayOneIndex;
+        private final CalendarEntry dayOneEntry;
+        private final long endMillis;
+        private int offset = 1;
+        private long nextMillis;
+
+        FollowingDays(int dayOneIndex, CalendarEntry dayOneEntry, DateTime endOfTimeRange) {
+            this.dayOneIndex = dayOneIndex;
+            this.dayOneEntry = dayOneEntry;
+            DateTime eventEnd = dayOneEntry.getEvent().getEndDate();
+            endMillis = Math.min(eventEnd.getMillis(), endOfTimeRange.getMillis());
+            nextMillis = followingDay(dayOneEntry, offset).getMillis();
+        }
+
+        boolean hasNext() {
+            return nextMillis < endMillis;
+        }
+
+        boolean moveToNext() {
+            nextMillis = followingDay(dayOneEntry, ++offset).getMillis();
+            return hasNext();
+        }
+
+        /** The same order as of {@link WidgetEntry#compareTo(WidgetEntry)} of the entries */
+        int compareTo(WidgetEntry other) {
+            return compareTo(other.getStartMillis(), other);
+        }
+
+        @Override
+        public int compareTo(FollowingDays other) {
+            return compareTo(other.nextMillis, other.dayOneEntry);
+        }
+
+        private int compareTo(long otherMillis, WidgetEntry other) {
+            if (nextMillis != otherMillis) {
+                return nextMillis > otherMillis ? 1 : -1;
+            }
+            int sourceSignum = Integer.signum(dayOneEntry.getSource().order - other.getSource().order);
+            return sourceSignum == 0
+                    ? dayOneEntry.getTitle().compareTo(other.getTitle())
+                    : sourceSignum;
+        }
+    }
+}
@@ -1,15 +1,14 @@
 package org.andstatus.todoagenda.calendar;
 
 import android.content.Context;
-import android.util.Log;
 
 import org.andstatus.todoagenda.prefs.AllSettings;
 import org.andstatus.todoagenda.prefs.InstanceSettings;
 import org.andstatus.todoagenda.prefs.OrderedEventSource;
 import org.andstatus.todoagenda.util.DateUtil;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
 import org.joda.time.DateTimeZone;
-import org.joda.time.LocalDateTime;
 
 import static org.andstatus.todoagenda.util.StringUtil.nonEmpty;
 import static org.andstatus.todoagenda.util.StringUtil.notNull;
@@ -24,8 +23,12 @@ public class CalendarEvent {
     private OrderedEventSource eventSource;
     private int eventId;
     private String title = "";
-    private DateTime startDate;
-    private DateTime endDate;
+    /** Dates are kept as millis and local days, DateTime views are created on access */
+    private long startMillis;
+    private int startDay;
+    private long endMillis;
+    private int endDay;
+    private boolean endSet;
     private int color;
     private boolean mHasDefaultCalendarColor;
     private String location = "";
@@ -49,61 +52,41 @@ public class CalendarEvent {
     }
 
     public DateTime getStartDate() {
-        return startDate;
+        return new DateTime(startMillis, zone);
     }
 
     public void setStartDate(DateTime startDate) {
-        this.startDate = allDay ? startDate.withTimeAtStartOfDay() : startDate;
-        fixEndDate();
+        setStart(allDay ? startDate.withTimeAtStartOfDay().getMillis() : startDate.getMillis());
     }
 
     public void setStartMillis(long startMillis) {
-        this.startDate = dateFromMillis(startMillis);
-        fixEndDate();
+        setStart(allDay ? LocalDayStarts.startOfDayMillis(zone, startMillis) : startMillis);
     }
 
     public long getStartMillis() {
-        return dateToMillis(startDate);
-    }
-
-    private DateTime dateFromMillis(long millis) {
-        return allDay ? fromAllDayMillis(millis) : new DateTime(millis, zone);
-    }
-
-    private static volatile long fixTimeOfAllDayEventLoggedAt = 0;
-    /**
-     * Implemented based on this answer: http://stackoverflow.com/a/5451245/297710
-     */
-    private DateTime fromAllDayMillis(long millis) {
-        String msgLog = "millis=" + millis;
-        DateTime fixed;
-        try {
-            DateTime utcDate = new DateTime(millis, DateTimeZone.UTC);
-            LocalDateTime ldt = new LocalDateTime()
-                    .withYear(utcDate.getYear())
-                    .withMonthOfYear(utcDate.getMonthOfYear())
-                    .withDayOfMonth(utcDate.getDayOfMonth())
-                    .withMillisOfDay(0);
-            int hour = 0;
-            while (zone.isLocalDateTimeGap(ldt)) {
-                Log.v("fixTimeOfAllDayEvent", "Local Date Time Gap: " + ldt + "; " + msgLog);
-                ldt = ldt.withHourOfDay(++hour);
-            }
-            fixed = ldt.toDateTime(zone);
-            msgLog += " -> " + fixed;
-            if (Math.abs(System.currentTimeMillis() - fixTimeOfAllDayEventLoggedAt) > 1000) {
-                fixTimeOfAllDayEventLoggedAt = System.currentTimeMillis();
-                Log.v("fixTimeOfAllDayEvent", msgLog);
-            }
-        } catch (org.joda.time.IllegalInstantException e) {
-            throw new org.joda.time.IllegalInstantException(msgLog + " caused by: " + e);
-        }
-        return fixed;
+        return allDay ? toAllDayMillis(startDay) : startMillis;
+    }
+
+    private void setStart(long millis) {
+        startMillis = millis;
+        startDay = DateUtil.toLocalDay(zone, millis);
+        fixEndDate();
+    }
+
+    private void setEnd(long millis) {
+        endMillis = millis;
+        endDay = DateUtil.toLocalDay(zone, millis);
+        endSet = true;
+        fixEndDate();
     }
 
     private void fixEndDate() {
-        if (endDate == null || !endDate.isAfter(startDate)) {
-            endDate = allDay ? startDate.plusDays(1) : startDate.plusSeconds(1);
+        if (!endSet || endMillis <= startMillis) {
+            endMillis = allDay
+                    ? LocalDayStarts.startOfDayMillis(zone, toAllDayMillis(startDay + 1))
+                    : startMillis + DateTimeConstants.MILLIS_PER_SECOND;
+            endDay = DateUtil.toLocalDay(zone, endMillis);
+            endSet = true;
         }
     }
 
@@ -124,31 +107,24 @@ public class CalendarEvent {
     }
 
     public DateTime getEndDate() {
-        return endDate;
+        return new DateTime(endMillis, zone);
     }
 
     public void setEndDate(DateTime endDate) {
-        this.endDate = allDay ? endDate.withTimeAtStartOfDay() : endDate;
-        fixEndDate();
+        setEnd(allDay ? endDate.withTimeAtStartOfDay().getMillis() : endDate.getMillis());
     }
 
     public void setEndMillis(long endMillis) {
-        this.endDate = dateFromMillis(endMillis);
-        fixEndDate();
+        setEnd(allDay ? LocalDayStarts.startOfDayMillis(zone, endMillis) : endMillis);
     }
 
     public long getEndMillis() {
-        return dateToMillis(endDate);
-    }
-
-    private long dateToMillis(DateTime date) {
-        return allDay ? toAllDayMillis(date) : date.getMillis();
+        return allDay ? toAllDayMillis(endDay) : endMillis;
     }
 
-    private long toAllDayMillis(DateTime date) {
-        DateTime utcDate = new DateTime(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth(), 0, 0,
-                DateTimeZone.UTC);
-        return utcDate.getMillis();
+    /** All day events are stored by Calendar provider at midnight UTC of their days */
+    private static long toAllDayMillis(int localDay) {
+        return localDay * (long) DateTimeConstants.MILLIS_PER_DAY;
     }
 
     public int getColor() {
@@ -200,7 +176,7 @@ public class CalendarEvent {
         return "CalendarEvent [eventId=" + eventId
                 + (nonEmpty(title) ? ", title=" + title : "")
                 + ", startDate=" + getStartDate()
-                + (endDate != null ? ", endDate=" + endDate : "")
+                + ", endDate=" + getEndDate()
                 + ", color=" + color
                 + (mHasDefaultCalendarColor ? " is default" : "")
                 + ", allDay=" + allDay
@@ -219,7 +195,7 @@ public class CalendarEvent {
             return false;
         }
         CalendarEvent that = (CalendarEvent) o;
-        if (eventId != that.eventId || !startDate.equals(that.startDate)) {
+        if (eventId != that.eventId || startMillis != that.startMillis || !zone.equals(that.zone)) {
             return false;
         }
         return true;
@@ -228,17 +204,17 @@ public class CalendarEvent {
     @Override
     public int hashCode() {
         int result = eventId;
-        result += 31 * startDate.hashCode();
+        result += 31 * (int) (startMillis ^ (startMillis >>> 32));
         return result;
     }
 
     public boolean isActive() {
-        DateTime now = DateUtil.now(zone);
-        return startDate.isBefore(now) && endDate.isAfter(now);
+        long now = DateUtil.now(zone).getMillis();
+        return startMillis < now && endMillis > now;
     }
 
     public boolean isPartOfMultiDayEvent() {
-        return endDate.withTimeAtStartOfDay().isAfter(startDate.withTimeAtStartOfDay());
+        return endDay > startDay;
     }
 
     public InstanceSettings getSettings() {
@@ -7,15 +7,20 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.os.OperationCanceledException;
 import android.provider.CalendarContract;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.Instances;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import org.andstatus.todoagenda.calendar.InstancesCache.InstanceRow;
 import org.andstatus.todoagenda.prefs.EventSource;
+import org.andstatus.todoagenda.prefs.InstanceSettings;
 import org.andstatus.todoagenda.prefs.OrderedEventSource;
 import org.andstatus.todoagenda.provider.EventProvider;
 import org.andstatus.todoagenda.provider.EventProviderType;
@@ -28,8 +33,15 @@ import org.joda.time.DateTime;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.andstatus.todoagenda.util.StringUtil.notNull;
 
 public class CalendarEventProvider extends EventProvider {
     private static final String TAG = CalendarEventProvider.class.getSimpleName();
@@ -40,6 +52,10 @@ public class CalendarEventProvider extends EventProvider {
     public static final String EVENT_SORT_ORDER = "startDay ASC, allDay DESC, begin ASC ";
     private static final String EVENT_SELECTION = Instances.SELF_ATTENDEE_STATUS + "!="
             + Attendees.ATTENDEE_STATUS_DECLINED;
+    private static final String IN = " IN (";
+    private static final Map<String, Selection> selections = new ConcurrentHashMap<>();
+    /** Half of the time window around now, where closest instances of recurring events are looked for first */
+    public static final int CLOSEST_INSTANCE_WINDOW_DAYS = 7;
 
     public CalendarEventProvider(EventProviderType type, Context context, int widgetId) {
         super(type, context, widgetId);
@@ -51,43 +67,109 @@ public class CalendarEventProvider extends EventProvider {
                 getSettings().getActiveEventSources(type).isEmpty()) {
             return Collections.emptyList();
         }
-        List<CalendarEvent> eventList = getTimeFilteredEventList();
+        boolean onlyClosestInstance = getSettings().getShowOnlyClosestInstanceOfRecurringEvent();
+        long nowMillis = DateUtil.now(zone).getMillis();
+        List<CalendarEvent> eventList = onlyClosestInstance
+                ? getClosestInstancesList(nowMillis)
+                : getCachedEventList(mStartOfTimeRange, mEndOfTimeRange);
         if (getSettings().getShowPastEventsWithDefaultColor()) {
             addPastEventsWithDefaultColor(eventList);
-        }
-        if (getSettings().getShowOnlyClosestInstanceOfRecurringEvent()) {
-            filterShowOnlyClosestInstanceOfRecurringEvent(eventList);
+            if (onlyClosestInstance) {
+                filterShowOnlyClosestInstanceOfRecurringEvent(eventList, nowMillis);
+            }
         }
         return eventList;
     }
 
     private void addPastEventsWithDefaultColor(List<CalendarEvent> eventList) {
-        for (CalendarEvent event : getPastEventsWithColorList()) {
-            if (eventList.contains(event)) {
-                eventList.remove(event);
+        List<CalendarEvent> pastEvents = getPastEventsWithColorList();
+        if (pastEvents.isEmpty()) return;
+
+        // Past instances replace the same instances, found in the time range
+        Set<CalendarEvent> pastEventsSet = new HashSet<>(pastEvents);
+        for (Iterator<CalendarEvent> it = eventList.iterator(); it.hasNext(); ) {
+            if (pastEventsSet.contains(it.next())) {
+                it.remove();
             }
-            eventList.add(event);
         }
+        eventList.addAll(pastEvents);
     }
 
-    private void filterShowOnlyClosestInstanceOfRecurringEvent(@NonNull List<CalendarEvent> eventList) {
-        SparseArray<CalendarEvent> eventIds = new SparseArray<>();
-        List<CalendarEvent> toDelete = new ArrayList<>();
+    private void filterShowOnlyClosestInstanceOfRecurringEvent(@NonNull List<CalendarEvent> eventList,
+                                                                long nowMillis) {
+        SparseArray<CalendarEvent> closest = new SparseArray<>();
         for (CalendarEvent event : eventList) {
-            CalendarEvent otherEvent = eventIds.get(event.getEventId());
-            if (otherEvent == null) {
-                eventIds.put(event.getEventId(), event);
-            } else if (Math.abs(event.getStartDate().getMillis() -
-                    DateUtil.now(zone).getMillis()) <
-                    Math.abs(otherEvent.getStartDate().getMillis() -
-                            DateUtil.now(zone).getMillis())) {
-                toDelete.add(otherEvent);
-                eventIds.put(event.getEventId(), event);
-            } else {
-                toDelete.add(event);
+            putIfCloser(closest, event, nowMillis);
+        }
+        eventList.clear();
+        for (int ind = 0; ind < closest.size(); ind++) {
+            eventList.add(closest.valueAt(ind));
+        }
+    }
+
+    /**
+     * Only the closest instance of each event is needed, so the time range is not expanded at once.
+     * Instances are queried in a window around now, which grows twice at each step up to the time range,
+     * and each step queries only the time, added to the window. So each instance is expanded once.
+     * An instance, which starts within the window, is the closest one of its event: other instances of the event,
+     * found at the next steps, start farther from now, so their rows are skipped.
+     */
+    private List<CalendarEvent> getClosestInstancesList(long nowMillis) {
+        long startMillis = mStartOfTimeRange.getMillis();
+        long endMillis = mEndOfTimeRange.getMillis();
+        long windowMillis = TimeUnit.DAYS.toMillis(CLOSEST_INSTANCE_WINDOW_DAYS);
+        long from = Math.min(endMillis, Math.max(startMillis, nowMillis - windowMillis));
+        long to = Math.max(startMillis, Math.min(endMillis, nowMillis + windowMillis));
+        SparseArray<CalendarEvent> closest = new SparseArray<>();
+        if (from < to) {
+            addClosestInstances(closest, from, to, new SparseBooleanArray(), nowMillis);
+        }
+        while (from > startMillis || to < endMillis) {
+            SparseBooleanArray found = new SparseBooleanArray();
+            for (int ind = 0; ind < closest.size(); ind++) {
+                long eventStart = closest.valueAt(ind).getStartMillis();
+                if (eventStart >= from && eventStart <= to) {
+                    found.put(closest.keyAt(ind), true);
+                }
+            }
+            windowMillis *= 2;
+            long nextFrom = Math.max(startMillis, nowMillis - windowMillis);
+            long nextTo = Math.min(endMillis, nowMillis + windowMillis);
+            if (nextFrom < from) {
+                addClosestInstances(closest, nextFrom, from, found, nowMillis);
+                from = nextFrom;
             }
+            if (nextTo > to) {
+                addClosestInstances(closest, to, nextTo, found, nowMillis);
+                to = nextTo;
+            }
+        }
+        List<CalendarEvent> eventList = new ArrayList<>(closest.size());
+        for (int ind = 0; ind < closest.size(); ind++) {
+            eventList.add(closest.valueAt(ind));
+        }
+        return eventList;
+    }
+
+    private void addClosestInstances(SparseArray<CalendarEvent> closest, long fromMillis, long toMillis,
+                                     SparseBooleanArray skippedEventIds, long nowMillis) {
+        Uri.Builder builder = Instances.CONTENT_URI.buildUpon();
+        ContentUris.appendId(builder, fromMillis);
+        ContentUris.appendId(builder, toMillis);
+        // Events are filtered by the whole time range: all day events may be found in a neighbouring part of it
+        for (CalendarEvent event : filterByTimeRange(
+                queryList(builder.build(), getCalendarSelection(), skippedEventIds),
+                mStartOfTimeRange, mEndOfTimeRange)) {
+            putIfCloser(closest, event, nowMillis);
+        }
+    }
+
+    private static void putIfCloser(SparseArray<CalendarEvent> closest, CalendarEvent event, long nowMillis) {
+        CalendarEvent otherEvent = closest.get(event.getEventId());
+        if (otherEvent == null || Math.abs(event.getStartMillis() - nowMillis) <
+                Math.abs(otherEvent.getStartMillis() - nowMillis)) {
+            closest.put(event.getEventId(), event);
         }
-        eventList.removeAll(toDelete);
     }
 
     public DateTime getEndOfTimeRange() {
@@ -98,18 +180,51 @@ public class CalendarEventProvider extends EventProvider {
         return mStartOfTimeRange;
     }
 
-    private List<CalendarEvent> getTimeFilteredEventList() {
+    private List<CalendarEvent> getTimeFilteredEventList(DateTime startOfTimeRange, DateTime endOfTimeRange,
+                                                         String selection) {
         Uri.Builder builder = Instances.CONTENT_URI.buildUpon();
-        ContentUris.appendId(builder, mStartOfTimeRange.getMillis());
-        ContentUris.appendId(builder, mEndOfTimeRange.getMillis());
-        List<CalendarEvent> eventList = queryList(builder.build(), getCalendarSelection());
+        ContentUris.appendId(builder, startOfTimeRange.getMillis());
+        ContentUris.appendId(builder, endOfTimeRange.getMillis());
+        return filterByTimeRange(queryList(builder.build(), selection), startOfTimeRange, endOfTimeRange);
+    }
+
+    /**
+     * Instances of the time range from the {@link InstancesCache}, which is shared by all widgets.
+     * Only the rows, which the cache doesn't have yet, are queried
+     */
+    private List<CalendarEvent> getCachedEventList(DateTime startOfTimeRange, DateTime endOfTimeRange) {
+        if (QueryResultsStorage.getNeedToStoreResults()) {
+            // Results of the widget's own query are recorded
+            return getTimeFilteredEventList(startOfTimeRange, endOfTimeRange, getCalendarSelection());
+        }
+        InstancesCache.Loader loader = new InstancesCache.Loader() {
+            @Override
+            public List<InstanceRow> load(int[] calendarIds, long fromMillis, long toMillis, int columns) {
+                return queryRows(calendarIds, fromMillis, toMillis, columns);
+            }
+        };
+        CalendarChangeTracker.applyPendingChanges(loader);
+        List<InstanceRow> rows = InstancesCache.get(getSelection().calendarIds,
+                startOfTimeRange.getMillis(), endOfTimeRange.getMillis(), getColumns(getSettings()), loader);
+        List<CalendarEvent> eventList = new ArrayList<>(rows.size());
+        SparseArray<OrderedEventSource> sources = getSourcesById();
+        for (InstanceRow row : rows) {
+            if (!mKeywordsFilter.matched(notNull(row.title))) {
+                eventList.add(createCalendarEvent(row, sources));
+            }
+        }
+        return filterByTimeRange(eventList, startOfTimeRange, endOfTimeRange);
+    }
+
+    private List<CalendarEvent> filterByTimeRange(List<CalendarEvent> eventList, DateTime startOfTimeRange,
+                                                  DateTime endOfTimeRange) {
         // Above filters are not exactly correct for AllDay events: for them that filter
         // time should be moved by a time zone... (i.e. by several hours)
         // This is why we need to do additional filtering after querying a Content Provider:
         for (Iterator<CalendarEvent> it = eventList.iterator(); it.hasNext(); ) {
             CalendarEvent event = it.next();
-            if (!event.getEndDate().isAfter(mStartOfTimeRange)
-                    || !mEndOfTimeRange.isAfter(event.getStartDate())) {
+            if (!event.getEndDate().isAfter(startOfTimeRange)
+                    || !endOfTimeRange.isAfter(event.getStartDate())) {
                 // We remove using Iterator to avoid ConcurrentModificationException
                 it.remove();
             }
@@ -118,45 +233,98 @@ public class CalendarEventProvider extends EventProvider {
     }
 
     private String getCalendarSelection() {
+        return getSelection().calendarSelection;
+    }
+
+    /** Selections of this widget and provider, built once for the settings */
+    Selection getSelection() {
+        String key = selectionKeyOf(getSettings().getWidgetId(), type);
+        Selection selection = selections.get(key);
+        if (selection == null || selection.settings != getSettings()) {
+            selection = buildSelection();
+            selections.put(key, selection);
+        }
+        return selection;
+    }
+
+    private static String selectionKeyOf(int widgetId, EventProviderType type) {
+        return widgetId + ":" + type.id;
+    }
+
+    private Selection buildSelection() {
         List<OrderedEventSource> activeSources = getSettings().getActiveEventSources(type);
+        int[] calendarIds = new int[activeSources.size()];
+        for (int ind = 0; ind < activeSources.size(); ind++) {
+            calendarIds[ind] = activeSources.get(ind).source.getId();
+        }
+        String calendarSelection = getCalendarSelection(calendarIds.length);
+        return new Selection(getSettings(), calendarIds, calendarSelection,
+                getPastEventsWithColorSelection(calendarSelection), toSelectionArgs(calendarIds),
+                getProjection(getSettings()));
+    }
+
+    private static String getCalendarSelection(int calendarsCount) {
         StringBuilder stringBuilder = new StringBuilder(EVENT_SELECTION);
-        if (!activeSources.isEmpty()) {
+        if (calendarsCount > 0) {
+            // The same statement for any calendar ids, so the provider may reuse its compiled form
             stringBuilder.append(AND_BRACKET);
-            Iterator<OrderedEventSource> iterator = activeSources.iterator();
-            while (iterator.hasNext()) {
-                EventSource source = iterator.next().source;
-                stringBuilder.append(Instances.CALENDAR_ID);
-                stringBuilder.append(EQUALS);
-                stringBuilder.append(source.getId());
-                if (iterator.hasNext()) {
-                    stringBuilder.append(OR);
-                }
+            stringBuilder.append(Instances.CALENDAR_ID);
+            stringBuilder.append(IN);
+            for (int ind = 0; ind < calendarsCount; ind++) {
+                stringBuilder.append(ind == 0 ? "?" : ",?");
             }
+            stringBuilder.append(")");
             stringBuilder.append(CLOSING_BRACKET);
         }
         return stringBuilder.toString();
     }
 
-    private List<CalendarEvent> queryList(Uri uri, String selection) {
+    private static String[] toSelectionArgs(int[] calendarIds) {
+        String[] selectionArgs = new String[calendarIds.length];
+        for (int ind = 0; ind < calendarIds.length; ind++) {
+            selectionArgs[ind] = Integer.toString(calendarIds[ind]);
+        }
+        return selectionArgs;
+    }
+
+    List<CalendarEvent> queryList(Uri uri, String selection) {
+        return queryList(uri, selection, new SparseBooleanArray());
+    }
+
+    /** @param skippedEventIds rows of these events are not read */
+    private List<CalendarEvent> queryList(Uri uri, String selection, SparseBooleanArray skippedEventIds) {
         List<CalendarEvent> eventList = new ArrayList<>();
-        QueryResult result = new QueryResult(type, getSettings(), uri, getProjection(),
-                selection, null, EVENT_SORT_ORDER);
+        String[] selectionArgs = getSelection().selectionArgs;
+        // Recorded results should have all columns, whatever is shown in the widget
+        String[] projection = QueryResultsStorage.getNeedToStoreResults()
+                ? getProjection()
+                : getSelection().projection;
+        QueryResult result = new QueryResult(type, getSettings(), uri, projection,
+                selection, selectionArgs, EVENT_SORT_ORDER);
+        long startedAt = System.nanoTime();
         Cursor cursor = null;
         try {
-            cursor = context.getContentResolver().query(uri, getProjection(),
-                    selection, null, EVENT_SORT_ORDER);
+            cursor = context.getContentResolver().query(uri, projection,
+                    selection, selectionArgs, EVENT_SORT_ORDER, cancellationSignal);
             if (cursor != null) {
-                for (int i = 0; i < cursor.getCount(); i++) {
-                    cursor.moveToPosition(i);
+                CursorBinding binding = new CursorBinding(cursor, getSourcesById());
+                Set<InstanceKey> added = new HashSet<>();
+                while (cursor.moveToNext()) {
+                    throwIfCanceled();
                     if (QueryResultsStorage.getNeedToStoreResults()) {
                         result.addRow(cursor);
                     }
-                    CalendarEvent event = createCalendarEvent(cursor);
-                    if (!eventList.contains(event) && !mKeywordsFilter.matched(event.getTitle())) {
-                        eventList.add(event);
+                    if (skippedEventIds.get(cursor.getInt(binding.eventId))
+                            || mKeywordsFilter.matched(notNull(cursor.getString(binding.title)))) {
+                        continue;
+                    }
+                    if (added.add(new InstanceKey(cursor.getInt(binding.eventId), cursor.getLong(binding.begin)))) {
+                        eventList.add(createCalendarEvent(cursor, binding));
                     }
                 }
             }
+        } catch (OperationCanceledException e) {
+            throw e;
         } catch (Exception e) {
             Log.w(TAG, "Failed to queryList uri:" + uri + ", selection:" + selection, e);
         } finally {
@@ -164,11 +332,57 @@ public class CalendarEventProvider extends EventProvider {
                 cursor.close();
             }
         }
+        Log.d(TAG, "queryList: " + eventList.size() + " events, " + selectionArgs.length + " calendars, " +
+                (System.nanoTime() - startedAt) / 1000000 + " ms, uri:" + uri);
         QueryResultsStorage.store(result);
         return eventList;
     }
 
+    /** Rows for the {@link InstancesCache}. Failures are not cached, so they are thrown */
+    private List<InstanceRow> queryRows(int[] calendarIds, long fromMillis, long toMillis, int columns) {
+        Uri.Builder builder = Instances.CONTENT_URI.buildUpon();
+        ContentUris.appendId(builder, fromMillis);
+        ContentUris.appendId(builder, toMillis);
+        Uri uri = builder.build();
+        List<InstanceRow> rows = new ArrayList<>();
+        long startedAt = System.nanoTime();
+        // Rows are shared by widgets with different settings, so they have columns, needed by any of them
+        Cursor cursor = context.getContentResolver().query(uri, getProjection(columns),
+                getCalendarSelection(calendarIds.length), toSelectionArgs(calendarIds), EVENT_SORT_ORDER,
+                cancellationSignal);
+        if (cursor != null) {
+            try {
+                CursorBinding binding = new CursorBinding(cursor, null);
+                while (cursor.moveToNext()) {
+                    throwIfCanceled();
+                    rows.add(readRow(cursor, binding));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        Log.d(TAG, "queryRows: " + rows.size() + " rows, " + calendarIds.length + " calendars, " +
+                (System.nanoTime() - startedAt) / 1000000 + " ms, uri:" + uri);
+        return rows;
+    }
+
     public static String[] getProjection() {
+        return getProjection(InstancesCache.LOCATION | InstancesCache.ALARM | InstancesCache.RECURRING);
+    }
+
+    /** @return columns, which are needed to show events with these settings */
+    static String[] getProjection(InstanceSettings settings) {
+        return getProjection(getColumns(settings));
+    }
+
+    /** @return optional columns, which are needed to show events with these settings */
+    static int getColumns(InstanceSettings settings) {
+        return (settings.getShowLocation() || settings.getHideDuplicates() ? InstancesCache.LOCATION : 0)
+                | (settings.getIndicateAlerts() ? InstancesCache.ALARM : 0)
+                | (settings.getIndicateRecurring() ? InstancesCache.RECURRING : 0);
+    }
+
+    private static String[] getProjection(int columns) {
         List<String> columnNames = new ArrayList<>();
         columnNames.add(Instances.CALENDAR_ID);
         columnNames.add(Instances.EVENT_ID);
@@ -176,9 +390,15 @@ public class CalendarEventProvider extends EventProvider {
         columnNames.add(Instances.BEGIN);
         columnNames.add(Instances.END);
         columnNames.add(Instances.ALL_DAY);
-        columnNames.add(Instances.EVENT_LOCATION);
-        columnNames.add(Instances.HAS_ALARM);
-        columnNames.add(Instances.RRULE);
+        if ((columns & InstancesCache.LOCATION) != 0) {
+            columnNames.add(Instances.EVENT_LOCATION);
+        }
+        if ((columns & InstancesCache.ALARM) != 0) {
+            columnNames.add(Instances.HAS_ALARM);
+        }
+        if ((columns & InstancesCache.RECURRING) != 0) {
+            columnNames.add(Instances.RRULE);
+        }
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
             columnNames.add(Instances.DISPLAY_COLOR);
         } else {
@@ -189,18 +409,56 @@ public class CalendarEventProvider extends EventProvider {
     }
 
     private List<CalendarEvent> getPastEventsWithColorList() {
+        long nowMillis = DateUtil.now(zone).getMillis();
+        if (QueryResultsStorage.getNeedToStoreResults()) {
+            // Stored results should have the whole query
+            return queryPastEventsWithColor(0, nowMillis);
+        }
+        return PastEventsIndex.getEvents(getSettings(), nowMillis, new PastEventsIndex.Loader() {
+            @Override
+            public List<CalendarEvent> load(long fromMillis, long toMillis) {
+                return queryPastEventsWithColor(fromMillis, toMillis);
+            }
+        });
+    }
+
+    private List<CalendarEvent> queryPastEventsWithColor(long fromMillis, long toMillis) {
         Uri.Builder builder = Instances.CONTENT_URI.buildUpon();
-        ContentUris.appendId(builder, 0);
-        ContentUris.appendId(builder, DateUtil.now(zone).getMillis());
-        List<CalendarEvent> eventList = queryList(builder.build(), getPastEventsWithColorSelection());
+        ContentUris.appendId(builder, fromMillis);
+        ContentUris.appendId(builder, toMillis);
+        List<CalendarEvent> eventList = queryList(builder.build(), getSelection().pastEventsWithColorSelection);
         for (CalendarEvent event : eventList) {
             event.setDefaultCalendarColor();
         }
         return eventList;
     }
 
-    private String getPastEventsWithColorSelection() {
-        StringBuilder stringBuilder = new StringBuilder(getCalendarSelection());
+    /**
+     * Should be called, when calendar data has changed. Cached instances of only the changed calendar
+     * are reloaded, if the Uri of the change is a Uri of a calendar
+     */
+    public static void onProviderChanged(@Nullable Uri uri) {
+        PastEventsIndex.invalidateAll();
+        CalendarChangeTracker.onChange(uri);
+    }
+
+    /** Forgets selections of the deleted widget */
+    public static void onWidgetDeleted(int widgetId) {
+        for (EventProviderType type : EventProviderType.values()) {
+            selections.remove(selectionKeyOf(widgetId, type));
+        }
+    }
+
+    /** Drops all cached calendar data, e.g. when the time zone has changed */
+    public static void invalidateCaches() {
+        PastEventsIndex.invalidateAll();
+        InstancesCache.invalidateAll();
+        CalendarChangeTracker.onFullReload();
+        LocalDayStarts.clear();
+    }
+
+    private static String getPastEventsWithColorSelection(String calendarSelection) {
+        StringBuilder stringBuilder = new StringBuilder(calendarSelection);
         stringBuilder.append(AND_BRACKET);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
             stringBuilder.append(Instances.DISPLAY_COLOR);
@@ -215,33 +473,140 @@ public class CalendarEventProvider extends EventProvider {
         return stringBuilder.toString();
     }
 
-    private CalendarEvent createCalendarEvent(Cursor cursor) {
-        OrderedEventSource source = getSettings()
-            .getActiveEventSource(type, cursor.getInt(cursor.getColumnIndex(Instances.CALENDAR_ID)));
-
-        boolean allDay = cursor.getInt(cursor.getColumnIndex(Instances.ALL_DAY)) > 0;
-        CalendarEvent event = new CalendarEvent(context, widgetId, zone, allDay);
-        event.setEventSource(source);
-        event.setEventId(cursor.getInt(cursor.getColumnIndex(Instances.EVENT_ID)));
-        event.setTitle(cursor.getString(cursor.getColumnIndex(Instances.TITLE)));
-        event.setStartMillis(cursor.getLong(cursor.getColumnIndex(Instances.BEGIN)));
-        event.setEndMillis(cursor.getLong(cursor.getColumnIndex(Instances.END)));
-        event.setLocation(cursor.getString(cursor.getColumnIndex(Instances.EVENT_LOCATION)));
-        event.setAlarmActive(cursor.getInt(cursor.getColumnIndex(Instances.HAS_ALARM)) > 0);
-        event.setRecurring(cursor.getString(cursor.getColumnIndex(Instances.RRULE)) != null);
-        event.setColor(getAsOpaque(getEventColor(cursor)));
+    /** Active sources of this provider by calendar id */
+    SparseArray<OrderedEventSource> getSourcesById() {
+        SparseArray<OrderedEventSource> sources = new SparseArray<>();
+        for (OrderedEventSource orderedSource : getSettings().getActiveEventSources(type)) {
+            sources.put(orderedSource.source.getId(), orderedSource);
+        }
+        return sources;
+    }
+
+    static class Selection {
+        private final InstanceSettings settings;
+        /** Ids of active calendars. Shouldn't be modified */
+        final int[] calendarIds;
+        final String calendarSelection;
+        final String pastEventsWithColorSelection;
+        /** {@link #calendarIds} as arguments of the selections */
+        final String[] selectionArgs;
+        /** Only columns, which are shown with the settings. Shouldn't be modified */
+        final String[] projection;
+
+        private Selection(InstanceSettings settings, int[] calendarIds, String calendarSelection,
+                          String pastEventsWithColorSelection, String[] selectionArgs, String[] projection) {
+            this.settings = settings;
+            this.calendarIds = calendarIds;
+            this.calendarSelection = calendarSelection;
+            this.pastEventsWithColorSelection = pastEventsWithColorSelection;
+            this.selectionArgs = selectionArgs;
+            this.projection = projection;
+        }
+    }
+
+    /**
+     * Column indices and event sources, resolved once per query instead of once per row.
+     * Index of a column, which is not in the projection, is -1
+     */
+    static class CursorBinding {
+        private final SparseArray<OrderedEventSource> sources;
+        final int calendarId;
+        final int eventId;
+        final int title;
+        final int begin;
+        final int end;
+        final int allDay;
+        final int location;
+        final int hasAlarm;
+        final int rrule;
+        final int displayColor;
+        final int eventColor;
+        final int calendarColor;
+
+        CursorBinding(Cursor cursor, SparseArray<OrderedEventSource> sources) {
+            this.sources = sources;
+            calendarId = cursor.getColumnIndex(Instances.CALENDAR_ID);
+            eventId = cursor.getColumnIndex(Instances.EVENT_ID);
+            title = cursor.getColumnIndex(Instances.TITLE);
+            begin = cursor.getColumnIndex(Instances.BEGIN);
+            end = cursor.getColumnIndex(Instances.END);
+            allDay = cursor.getColumnIndex(Instances.ALL_DAY);
+            location = cursor.getColumnIndex(Instances.EVENT_LOCATION);
+            hasAlarm = cursor.getColumnIndex(Instances.HAS_ALARM);
+            rrule = cursor.getColumnIndex(Instances.RRULE);
+            displayColor = cursor.getColumnIndex(Instances.DISPLAY_COLOR);
+            eventColor = cursor.getColumnIndex(Instances.EVENT_COLOR);
+            calendarColor = cursor.getColumnIndex(Instances.CALENDAR_COLOR);
+        }
+    }
+
+    /** Identifies an instance of an event, the same way as {@link CalendarEvent#equals(Object)} does */
+    static final class InstanceKey {
+        private final int eventId;
+        private final long begin;
+
+        InstanceKey(int eventId, long begin) {
+            this.eventId = eventId;
+            this.begin = begin;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            InstanceKey that = (InstanceKey) o;
+            return eventId == that.eventId && begin == that.begin;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * eventId + (int) (begin ^ (begin >>> 32));
+        }
+    }
+
+    CalendarEvent createCalendarEvent(Cursor cursor, CursorBinding binding) {
+        return createCalendarEvent(readRow(cursor, binding), binding.sources);
+    }
+
+    private static InstanceRow readRow(Cursor cursor, CursorBinding binding) {
+        return new InstanceRow(
+                cursor.getInt(binding.calendarId),
+                cursor.getInt(binding.eventId),
+                cursor.getString(binding.title),
+                cursor.getLong(binding.begin),
+                cursor.getLong(binding.end),
+                cursor.getInt(binding.allDay) > 0,
+                binding.location < 0 ? null : cursor.getString(binding.location),
+                binding.hasAlarm >= 0 && cursor.getInt(binding.hasAlarm) > 0,
+                binding.rrule >= 0 && cursor.getString(binding.rrule) != null,
+                getEventColor(cursor, binding));
+    }
+
+    private CalendarEvent createCalendarEvent(InstanceRow row, SparseArray<OrderedEventSource> sources) {
+        CalendarEvent event = new CalendarEvent(context, widgetId, zone, row.allDay);
+        OrderedEventSource source = sources.get(row.calendarId);
+        event.setEventSource(source == null ? OrderedEventSource.EMPTY : source);
+        event.setEventId(row.eventId);
+        event.setTitle(row.title);
+        event.setStartMillis(row.begin);
+        event.setEndMillis(row.end);
+        event.setLocation(row.location);
+        event.setAlarmActive(row.hasAlarm);
+        event.setRecurring(row.recurring);
+        event.setColor(getAsOpaque(row.color));
         return event;
     }
 
-    private int getEventColor(Cursor cursor) {
+    private static int getEventColor(Cursor cursor, CursorBinding binding) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-            return cursor.getInt(cursor.getColumnIndex(Instances.DISPLAY_COLOR));
+            return cursor.getInt(binding.displayColor);
         } else {
-            int eventColor = cursor.getInt(cursor.getColumnIndex(Instances.EVENT_COLOR));
+            int eventColor = cursor.getInt(binding.eventColor);
             if (eventColor > 0) {
                 return eventColor;
             }
-            return cursor.getInt(cursor.getColumnIndex(Instances.CALENDAR_COLOR));
+            return cursor.getInt(binding.calendarColor);
         }
     }
 
@@ -17,6 +17,7 @@ import org.andstatus.todoagenda.widget.WidgetEntryVisualizer;
 import org.joda.time.DateTime;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static org.andstatus.todoagenda.util.RemoteViewsUtil.setAlpha;
@@ -99,47 +100,33 @@ public class CalendarEventVisualizer extends WidgetEntryVisualizer<CalendarEntry
     }
 
     private List<CalendarEntry> createEntryList(List<CalendarEvent> eventList) {
-        boolean fillAllDayEvents = getSettings().getFillAllDayEvents();
-        List<CalendarEntry> entryList = new ArrayList<>();
+        DateTime startOfTimeRange = eventProvider.getStartOfTimeRange();
+        DateTime dayOfStartOfTimeRange = startOfTimeRange.withTimeAtStartOfDay();
+        DateTime today = DateUtil.now(startOfTimeRange.getZone()).withTimeAtStartOfDay();
+        List<CalendarEntry> dayOneEntries = new ArrayList<>();
         for (CalendarEvent event : eventList) {
-            CalendarEntry dayOneEntry = getDayOneEntry(event);
-            entryList.add(dayOneEntry);
-            if (fillAllDayEvents) {
-                createFollowingEntries(entryList, dayOneEntry);
-            }
+            dayOneEntries.add(getDayOneEntry(event, startOfTimeRange, dayOfStartOfTimeRange, today));
         }
-        return entryList;
+        // The Content provider returns events almost in our order, so this sort is close to linear
+        Collections.sort(dayOneEntries);
+        return getSettings().getFillAllDayEvents()
+                ? CalendarEntryList.withFollowingDays(dayOneEntries, eventProvider.getEndOfTimeRange())
+                : dayOneEntries;
     }
 
-    private CalendarEntry getDayOneEntry(CalendarEvent event) {
+    private CalendarEntry getDayOneEntry(CalendarEvent event, DateTime startOfTimeRange,
+                                         DateTime dayOfStartOfTimeRange, DateTime today) {
         DateTime firstDate = event.getStartDate();
-        DateTime dayOfStartOfTimeRange = eventProvider.getStartOfTimeRange()
-                .withTimeAtStartOfDay();
         if (!event.hasDefaultCalendarColor()
-                && firstDate.isBefore(eventProvider.getStartOfTimeRange())
-                && event.getEndDate().isAfter(eventProvider.getStartOfTimeRange())) {
+                && firstDate.isBefore(startOfTimeRange)
+                && event.getEndDate().isAfter(startOfTimeRange)) {
             if (event.isAllDay() || firstDate.isBefore(dayOfStartOfTimeRange)) {
                 firstDate = dayOfStartOfTimeRange;
             }
         }
-        DateTime today = DateUtil.now(event.getStartDate().getZone()).withTimeAtStartOfDay();
         if (event.isActive() && firstDate.isBefore(today)) {
             firstDate = today;
         }
         return CalendarEntry.fromEvent(event, firstDate);
     }
-
-    private void createFollowingEntries(List<CalendarEntry> entryList, CalendarEntry dayOneEntry) {
-        DateTime endDate = dayOneEntry.getEvent().getEndDate();
-        if (endDate.isAfter(eventProvider.getEndOfTimeRange())) {
-            endDate = eventProvider.getEndOfTimeRange();
-        }
-        DateTime thisDay = dayOneEntry.getStartDay().plusDays(1).withTimeAtStartOfDay();
-        while (thisDay.isBefore(endDate)) {
-            CalendarEntry nextEntry = CalendarEntry.fromEvent(dayOneEntry.getEvent(), thisDay);
-            entryList.add(nextEntry);
-            thisDay = thisDay.plusDays(1);
-        }
-    }
-
 }
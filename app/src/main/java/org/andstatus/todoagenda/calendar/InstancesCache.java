@@ -0,0 +1,343 @@
+package org.andstatus.todoagenda.calendar;
+
+import org.andstatus.todoagenda.calendar.CalendarEventProvider.InstanceKey;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Rows of the Instances table, shared by all widgets of the process.
+ * Rows are kept by a calendar and by a time bucket, so widgets, showing overlapping sets of calendars
+ * for overlapping time ranges, are served by one query to the Calendar provider.
+ * Optional columns are read, if any of the widgets needs them, so rows have the union of the needed columns.
+ * Any change in calendars invalidates the cache.
+ */
+class InstancesCache {
+    static final long BUCKET_MILLIS = TimeUnit.DAYS.toMillis(7);
+    /** In case a change in calendars was not broadcasted */
+    static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    /** Optional columns of rows, a bit mask */
+    static final int LOCATION = 1;
+    static final int ALARM = 2;
+    static final int RECURRING = 4;
+
+    interface Loader {
+        /**
+         * @param columns optional columns to read, see {@link #LOCATION}
+         * @return rows of instances of the calendars, which overlap the time range
+         */
+        List<InstanceRow> load(int[] calendarIds, long fromMillis, long toMillis, int columns);
+    }
+
+    /** Buckets by {@link #keyOf(int, long)} */
+    private static final Map<Long, Bucket> buckets = new ConcurrentHashMap<>();
+    /** Widgets, which need missing rows of the same calendars, wait for one load. Other loads run concurrently */
+    private static final Map<Integer, ReentrantLock> calendarLocks = new ConcurrentHashMap<>();
+    private static final AtomicLong invalidationsCount = new AtomicLong();
+    private static final AtomicLong loadsCount = new AtomicLong();
+    /** Optional columns, which were needed by widgets of the process, so rows are loaded with them */
+    private static final AtomicInteger neededColumns = new AtomicInteger();
+
+    private static final Comparator<InstanceRow> BY_BEGIN = new Comparator<InstanceRow>() {
+        @Override
+        public int compare(InstanceRow o1, InstanceRow o2) {
+            return o1.begin < o2.begin ? -1 : (o1.begin == o2.begin ? 0 : 1);
+        }
+    };
+
+    /** Instance of an event, as it was read from the Calendar provider */
+    static final class InstanceRow {
+        final int calendarId;
+        final int eventId;
+        final String title;
+        final long begin;
+        final long end;
+        final boolean allDay;
+        final String location;
+        final boolean hasAlarm;
+        final boolean recurring;
+        final int color;
+
+        InstanceRow(int calendarId, int eventId, String title, long begin, long end, boolean allDay,
+                    String location, boolean hasAlarm, boolean recurring, int color) {
+            this.calendarId = calendarId;
+            this.eventId = eventId;
+            this.title = title;
+            this.begin = begin;
+            this.end = end;
+            this.allDay = allDay;
+            this.location = location;
+            this.hasAlarm = hasAlarm;
+            this.recurring = recurring;
+            this.color = color;
+        }
+    }
+
+    /** Rows of one calendar, which overlap one time bucket */
+    private static final class Bucket {
+        final int calendarId;
+        final long index;
+        final List<InstanceRow> rows;
+        final int columns;
+        final long loadedAt;
+
+        Bucket(int calendarId, long index, List<InstanceRow> rows, int columns, long loadedAt) {
+            this.calendarId = calendarId;
+            this.index = index;
+            this.rows = rows;
+            this.columns = columns;
+            this.loadedAt = loadedAt;
+        }
+
+        boolean hasColumns(int columns) {
+            return (this.columns & columns) == columns;
+        }
+
+        boolean isExpired(long now) {
+            return now - loadedAt > MAX_AGE_MILLIS;
+        }
+    }
+
+    /**
+     * @param columns optional columns, which are needed, see {@link #LOCATION}
+     * @return instances of the calendars, which overlap the time range, sorted by begin
+     */
+    static List<InstanceRow> get(int[] calendarIds, long fromMillis, long toMillis, int columns, Loader loader) {
+        List<InstanceRow> rows = collect(calendarIds, fromMillis, toMillis, columns,
+                Collections.<Long, Bucket>emptyMap(), System.currentTimeMillis());
+        if (rows != null) return rows;
+
+        int[] sortedIds = Arrays.copyOf(calendarIds, calendarIds.length);
+        Arrays.sort(sortedIds);
+        List<ReentrantLock> locks = lock(sortedIds);
+        try {
+            // Buckets, which are valid at this time, are not removed as expired, till the rows are collected
+            long now = System.currentTimeMillis();
+            int[] missing = missingCalendars(sortedIds, fromMillis, toMillis, columns, now);
+            Map<Long, Bucket> loaded = Collections.emptyMap();
+            if (missing.length > 0) {
+                long invalidationsBefore = invalidationsCount.get();
+                loaded = load(missing, bucketOf(fromMillis), bucketOf(toMillis), addNeededColumns(columns),
+                        loader, now);
+                // Rows, loaded before a change in calendars, are used once and not stored
+                if (invalidationsBefore == invalidationsCount.get()) {
+                    buckets.putAll(loaded);
+                }
+            }
+            return collect(calendarIds, fromMillis, toMillis, columns, loaded, now);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /** @return null if some rows are not in the cache */
+    private static List<InstanceRow> collect(int[] calendarIds, long fromMillis, long toMillis, int columns,
+                                             Map<Long, Bucket> loaded, long now) {
+        List<InstanceRow> rows = new ArrayList<>();
+        Set<InstanceKey> added = new HashSet<>();
+        for (int calendarId : calendarIds) {
+            for (long bucket = bucketOf(fromMillis); bucket <= bucketOf(toMillis); bucket++) {
+                Bucket cached = getValid(calendarId, bucket, columns, loaded, now);
+                if (cached == null) return null;
+
+                for (InstanceRow row : cached.rows) {
+                    // The same instance may be in several buckets
+                    if (row.begin <= toMillis && row.end >= fromMillis &&
+                            added.add(new InstanceKey(row.eventId, row.begin))) {
+                        rows.add(row);
+                    }
+                }
+            }
+        }
+        Collections.sort(rows, BY_BEGIN);
+        return rows;
+    }
+
+    private static Bucket getValid(int calendarId, long bucket, int columns, Map<Long, Bucket> loaded, long now) {
+        Long key = keyOf(calendarId, bucket);
+        Bucket cached = loaded.get(key);
+        if (cached == null) {
+            cached = buckets.get(key);
+            if (cached == null || cached.isExpired(now) || !cached.hasColumns(columns)) return null;
+        }
+        return cached;
+    }
+
+    /** @return optional columns, needed by all widgets, including these columns */
+    private static int addNeededColumns(int columns) {
+        while (true) {
+            int needed = neededColumns.get();
+            if ((needed & columns) == columns || neededColumns.compareAndSet(needed, needed | columns)) {
+                return needed | columns;
+            }
+        }
+    }
+
+    /** @return calendars, which miss some buckets of the time range, in the same order */
+    private static int[] missingCalendars(int[] calendarIds, long fromMillis, long toMillis, int columns,
+                                          long now) {
+        int[] missing = new int[calendarIds.length];
+        int count = 0;
+        for (int calendarId : calendarIds) {
+            for (long bucket = bucketOf(fromMillis); bucket <= bucketOf(toMillis); bucket++) {
+                if (getValid(calendarId, bucket, columns, Collections.<Long, Bucket>emptyMap(), now) == null) {
+                    missing[count++] = calendarId;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(missing, count);
+    }
+
+    /** Loads all missing buckets of the calendars with one query */
+    private static Map<Long, Bucket> load(int[] calendarIds, long firstBucket, long lastBucket, int columns,
+                                          Loader loader, long now) {
+        removeExpired(now);
+        long firstMissing = lastBucket;
+        long lastMissing = firstBucket;
+        for (int calendarId : calendarIds) {
+            for (long bucket = firstBucket; bucket <= lastBucket; bucket++) {
+                Bucket cached = buckets.get(keyOf(calendarId, bucket));
+                if (cached == null || !cached.hasColumns(columns)) {
+                    firstMissing = Math.min(firstMissing, bucket);
+                    lastMissing = Math.max(lastMissing, bucket);
+                }
+            }
+        }
+        loadsCount.incrementAndGet();
+        List<InstanceRow> rows = loader.load(calendarIds, firstMissing * BUCKET_MILLIS,
+                (lastMissing + 1) * BUCKET_MILLIS, columns);
+        return toBuckets(calendarIds, firstMissing, lastMissing, rows, columns, now);
+    }
+
+    /** Splits the rows by calendars and buckets. Each of the calendars gets all buckets of the range */
+    private static Map<Long, Bucket> toBuckets(int[] calendarIds, long firstBucket, long lastBucket,
+                                               List<InstanceRow> rows, int columns, long loadedAt) {
+        Map<Long, List<InstanceRow>> rowsByKey = new HashMap<>();
+        for (int calendarId : calendarIds) {
+            for (long bucket = firstBucket; bucket <= lastBucket; bucket++) {
+                rowsByKey.put(keyOf(calendarId, bucket), new ArrayList<InstanceRow>());
+            }
+        }
+        for (InstanceRow row : rows) {
+            long last = Math.min(lastBucket, bucketOf(row.end));
+            for (long bucket = Math.max(firstBucket, bucketOf(row.begin)); bucket <= last; bucket++) {
+                List<InstanceRow> bucketRows = rowsByKey.get(keyOf(row.calendarId, bucket));
+                if (bucketRows != null) {
+                    bucketRows.add(row);
+                }
+            }
+        }
+        Map<Long, Bucket> loaded = new HashMap<>();
+        for (Map.Entry<Long, List<InstanceRow>> entry : rowsByKey.entrySet()) {
+            long key = entry.getKey();
+            loaded.put(key, new Bucket((int) (key >> 32), (int) key,
+                    Collections.unmodifiableList(entry.getValue()), columns, loadedAt));
+        }
+        return loaded;
+    }
+
+    /**
+     * Replaces rows of the changed calendars in all cached buckets, which have them.
+     * Buckets of other calendars are kept. One query for all changed calendars
+     */
+    static void reloadCalendars(Set<Integer> changedCalendars, Loader loader) {
+        long now = System.currentTimeMillis();
+        Set<Integer> cachedCalendars = new HashSet<>();
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (Bucket bucket : buckets.values()) {
+            if (changedCalendars.contains(bucket.calendarId) && !bucket.isExpired(now)) {
+                cachedCalendars.add(bucket.calendarId);
+                first = Math.min(first, bucket.index);
+                last = Math.max(last, bucket.index);
+            }
+        }
+        if (cachedCalendars.isEmpty()) return;
+
+        int[] ids = new int[cachedCalendars.size()];
+        int ind = 0;
+        for (int calendarId : cachedCalendars) {
+            ids[ind++] = calendarId;
+        }
+        Arrays.sort(ids);
+        List<ReentrantLock> locks = lock(ids);
+        try {
+            long invalidationsBefore = invalidationsCount.get();
+            loadsCount.incrementAndGet();
+            int columns = neededColumns.get();
+            List<InstanceRow> rows = loader.load(ids, first * BUCKET_MILLIS, (last + 1) * BUCKET_MILLIS, columns);
+            Map<Long, Bucket> reloaded = toBuckets(ids, first, last, rows, columns, now);
+            if (invalidationsBefore == invalidationsCount.get()) {
+                for (int calendarId : ids) {
+                    for (long bucket = first; bucket <= last; bucket++) {
+                        buckets.remove(keyOf(calendarId, bucket));
+                    }
+                }
+                buckets.putAll(reloaded);
+            }
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /** Locks are taken in the order of calendar ids, so two widgets never wait for each other */
+    private static List<ReentrantLock> lock(int[] sortedCalendarIds) {
+        List<ReentrantLock> locks = new ArrayList<>(sortedCalendarIds.length);
+        for (int calendarId : sortedCalendarIds) {
+            ReentrantLock lock = calendarLocks.get(calendarId);
+            if (lock == null) {
+                calendarLocks.putIfAbsent(calendarId, new ReentrantLock());
+                lock = calendarLocks.get(calendarId);
+            }
+            lock.lock();
+            locks.add(lock);
+        }
+        return locks;
+    }
+
+    private static void unlock(List<ReentrantLock> locks) {
+        for (int ind = locks.size() - 1; ind >= 0; ind--) {
+            locks.get(ind).unlock();
+        }
+    }
+
+    private static void removeExpired(long now) {
+        for (Iterator<Bucket> it = buckets.values().iterator(); it.hasNext(); ) {
+            if (it.next().isExpired(now)) {
+                it.remove();
+            }
+        }
+    }
+
+    private static long bucketOf(long millis) {
+        return Math.floorDiv(millis, BUCKET_MILLIS);
+    }
+
+    /** Calendar id in the high half and the bucket in the low half, so keys need no strings */
+    private static long keyOf(int calendarId, long bucket) {
+        return ((long) calendarId << 32) | (bucket & 0xFFFFFFFFL);
+    }
+
+    static void invalidateAll() {
+        invalidationsCount.incrementAndGet();
+        buckets.clear();
+    }
+
+    static long getLoadsCount() {
+        return loadsCount.get();
+    }
+}
@@ -0,0 +1,70 @@
+package org.andstatus.todoagenda.calendar;
+
+import android.util.Log;
+
+import org.joda.time.DateTimeZone;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts dates of all day events, stored by the Calendar provider as UTC midnights,
+ * to starts of the same dates in a local time zone. Results are cached by zone and by UTC day number.
+ * If the local midnight doesn't exist due to a time zone offset transition (a DST gap),
+ * the day starts at the first valid whole hour, see http://stackoverflow.com/a/5451245/297710
+ */
+class LocalDayStarts {
+    private static final String TAG = LocalDayStarts.class.getSimpleName();
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /** Days of several years of events, for each zone */
+    static final int MAX_DAYS_PER_ZONE = 4096;
+
+    private static final ConcurrentHashMap<DateTimeZone, Map<Long, Long>> zones = new ConcurrentHashMap<>();
+
+    private LocalDayStarts() {
+        // Empty
+    }
+
+    /** @return start of the local day with the same date, as the UTC date of the millis */
+    static long startOfDayMillis(DateTimeZone zone, long utcMillis) {
+        Map<Long, Long> days = zones.get(zone);
+        if (days == null) {
+            Map<Long, Long> created = new ConcurrentHashMap<>();
+            Map<Long, Long> existing = zones.putIfAbsent(zone, created);
+            days = existing == null ? created : existing;
+        }
+        long day = Math.floorDiv(utcMillis, DAY_MILLIS);
+        Long cached = days.get(day);
+        if (cached != null) return cached;
+
+        long startOfDay = calculate(zone, day);
+        if (days.size() >= MAX_DAYS_PER_ZONE) {
+            days.clear();
+        }
+        days.put(day, startOfDay);
+        return startOfDay;
+    }
+
+    private static long calculate(DateTimeZone zone, long day) {
+        long localMidnight = day * DAY_MILLIS;
+        for (int hour = 0; hour < 24; hour++) {
+            long local = localMidnight + hour * HOUR_MILLIS;
+            int offset = zone.getOffsetFromLocal(local);
+            long utc = local - offset;
+            if (zone.getOffset(utc) == offset) {
+                if (hour > 0) {
+                    Log.v(TAG, "Local Date Time Gap in " + zone + ", day " + day + " starts at " + hour + "h");
+                }
+                return utc;
+            }
+        }
+        // The whole day was skipped, e.g. in Pacific/Apia on 2011-12-30
+        return zone.convertLocalToUTC(localMidnight, false);
+    }
+
+    static void clear() {
+        zones.clear();
+    }
+}
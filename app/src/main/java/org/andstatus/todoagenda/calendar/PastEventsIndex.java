@@ -0,0 +1,73 @@
+package org.andstatus.todoagenda.calendar;
+
+import org.andstatus.todoagenda.prefs.InstanceSettings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Past instances of events with the default calendar color, by widget.
+ * The index is built by one query from the epoch and then extended only by the time,
+ * passed since the previous reload. Any change in calendars invalidates all indices.
+ */
+class PastEventsIndex {
+
+    interface Loader {
+        /** @return instances, which overlap the time range */
+        List<CalendarEvent> load(long fromMillis, long toMillis);
+    }
+
+    private static final Map<Integer, PastEventsIndex> indices = new ConcurrentHashMap<>();
+    private static final AtomicLong invalidationsCount = new AtomicLong();
+
+    /** Settings define selection, time zone and keywords filter of the indexed events */
+    private final InstanceSettings settings;
+    private final long indexedUpTo;
+    private final List<CalendarEvent> events;
+
+    private PastEventsIndex(InstanceSettings settings, long indexedUpTo, List<CalendarEvent> events) {
+        this.settings = settings;
+        this.indexedUpTo = indexedUpTo;
+        this.events = Collections.unmodifiableList(events);
+    }
+
+    static List<CalendarEvent> getEvents(InstanceSettings settings, long nowMillis, Loader loader) {
+        long invalidationsBefore = invalidationsCount.get();
+        PastEventsIndex index = indices.get(settings.getWidgetId());
+        PastEventsIndex updated;
+        if (index == null || index.settings != settings || nowMillis < index.indexedUpTo) {
+            updated = new PastEventsIndex(settings, nowMillis, loader.load(0, nowMillis));
+        } else if (nowMillis == index.indexedUpTo) {
+            updated = index;
+        } else {
+            updated = index.extendedBy(loader.load(index.indexedUpTo, nowMillis), nowMillis);
+        }
+        // An index, loaded before a change in calendars, is not stored
+        if (invalidationsBefore == invalidationsCount.get()) {
+            indices.put(settings.getWidgetId(), updated);
+        }
+        return updated.events;
+    }
+
+    private PastEventsIndex extendedBy(List<CalendarEvent> newEvents, long indexedUpTo) {
+        List<CalendarEvent> extended = new ArrayList<>(events);
+        Set<CalendarEvent> indexed = new HashSet<>(events);
+        for (CalendarEvent event : newEvents) {
+            if (indexed.add(event)) {
+                extended.add(event);
+            }
+        }
+        return new PastEventsIndex(settings, indexedUpTo, extended);
+    }
+
+    static void invalidateAll() {
+        invalidationsCount.incrementAndGet();
+        indices.clear();
+    }
+}
@@ -33,6 +33,8 @@ import static org.andstatus.todoagenda.prefs.InstanceSettings.PREF_HORIZONTAL_LI
 import static org.andstatus.todoagenda.prefs.InstanceSettings.PREF_INDICATE_ALERTS;
 import static org.andstatus.todoagenda.prefs.InstanceSettings.PREF_INDICATE_RECURRING;
 import static org.andstatus.todoagenda.prefs.InstanceSettings.PREF_LOCKED_TIME_ZONE_ID;
+import static org.andstatus.todoagenda.prefs.InstanceSettings.PREF_MAX_OVERDUE_TASKS;
+import static org.andstatus.todoagenda.prefs.InstanceSettings.PREF_MAX_OVERDUE_TASKS_DEFAULT;
 import static org.andstatus.todoagenda.prefs.InstanceSettings.PREF_MULTILINE_DETAILS;
 import static org.andstatus.todoagenda.prefs.InstanceSettings.PREF_MULTILINE_DETAILS_DEFAULT;
 import static org.andstatus.todoagenda.prefs.InstanceSettings.PREF_MULTILINE_TITLE;
@@ -77,6 +79,7 @@ public class ApplicationPreferences {
             setActiveEventSources(context, settings.getActiveEventSources());
             setEventRange(context, settings.getEventRange());
             setEventsEnded(context, settings.getEventsEnded());
+            setMaxOverdueTasks(context, settings.getMaxOverdueTasks());
             setFillAllDayEvents(context, settings.getFillAllDayEvents());
             setHideBasedOnKeywords(context, settings.getHideBasedOnKeywords());
             setInt(context, PREF_WIDGET_HEADER_BACKGROUND_COLOR, settings.getWidgetHeaderBackgroundColor());
@@ -165,6 +168,16 @@ public class ApplicationPreferences {
         setString(context, PREF_EVENTS_ENDED, value.save());
     }
 
+    public static int getMaxOverdueTasks(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs == null ? 0 : parseIntSafe(prefs.getString(PREF_MAX_OVERDUE_TASKS,
+                PREF_MAX_OVERDUE_TASKS_DEFAULT));
+    }
+
+    public static void setMaxOverdueTasks(Context context, int value) {
+        setString(context, PREF_MAX_OVERDUE_TASKS, Integer.toString(value));
+    }
+
     public static boolean getFillAllDayEvents(Context context) {
         return getBoolean(context, PREF_FILL_ALL_DAY, PREF_FILL_ALL_DAY_DEFAULT);
     }
@@ -177,7 +190,7 @@ public class ApplicationPreferences {
         return PreferenceManager.getDefaultSharedPreferences(context).getString(PREF_HIDE_BASED_ON_KEYWORDS, "");
     }
 
-    private static void setHideBasedOnKeywords(Context context, String value) {
+    public static void setHideBasedOnKeywords(Context context, String value) {
         setString(context, PREF_HIDE_BASED_ON_KEYWORDS, value);
     }
 
@@ -265,6 +278,18 @@ public class ApplicationPreferences {
         return getBoolean(context, PREF_SHOW_LOCATION, PREF_SHOW_LOCATION_DEFAULT);
     }
 
+    public static void setShowLocation(Context context, boolean value) {
+        setBoolean(context, PREF_SHOW_LOCATION, value);
+    }
+
+    public static void setIndicateAlerts(Context context, boolean value) {
+        setBoolean(context, PREF_INDICATE_ALERTS, value);
+    }
+
+    public static void setIndicateRecurring(Context context, boolean value) {
+        setBoolean(context, PREF_INDICATE_RECURRING, value);
+    }
+
     public static String getDateFormat(Context context) {
         return getString(context, PREF_DATE_FORMAT, PREF_DATE_FORMAT_DEFAULT);
     }
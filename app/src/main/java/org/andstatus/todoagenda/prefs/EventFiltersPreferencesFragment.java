@@ -25,6 +25,7 @@ public class EventFiltersPreferencesFragment extends PreferenceFragment implemen
 
     private void showStatus() {
         showEventsEnded();
+        showMaxOverdueTasks();
         showEvenRange();
         showHideBasedOnKeywords();
     }
@@ -34,6 +35,11 @@ public class EventFiltersPreferencesFragment extends PreferenceFragment implemen
         preference.setSummary(preference.getEntry());
     }
 
+    private void showMaxOverdueTasks() {
+        ListPreference preference = (ListPreference) findPreference(InstanceSettings.PREF_MAX_OVERDUE_TASKS);
+        preference.setSummary(preference.getEntry());
+    }
+
     private void showEvenRange() {
         ListPreference preference = (ListPreference) findPreference(InstanceSettings.PREF_EVENT_RANGE);
         preference.setSummary(preference.getEntry());
@@ -0,0 +1,158 @@
+package org.andstatus.todoagenda.prefs;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.andstatus.todoagenda.provider.EventProviderType;
+import org.andstatus.todoagenda.util.PermissionsUtil;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Event sources, available in all providers, and permissions, which the providers need.
+ * It is saved to a file, so a cold start of the process doesn't need to query the providers.
+ */
+public class EventSourcesCatalog {
+    private static final String TAG = EventSourcesCatalog.class.getSimpleName();
+    public static final EventSourcesCatalog EMPTY = new EventSourcesCatalog(
+            Collections.<OrderedEventSource>emptyList(), Collections.<String>emptySet(),
+            Collections.<String>emptySet());
+
+    private static final String STORAGE_KEY = "eventSourcesCatalog";
+    /** Increase, when the format of the file changes */
+    private static final int FORMAT_VERSION = 1;
+    private static final String KEY_FORMAT_VERSION = "formatVersion";
+    private static final String KEY_APP_VERSION_CODE = "appVersionCode";
+    private static final String KEY_SOURCES = "sources";
+    private static final String KEY_PERMISSIONS_NEEDED = "permissionsNeeded";
+    private static final String KEY_DENIED_PERMISSIONS = "deniedPermissions";
+
+    public final List<OrderedEventSource> sources;
+    /** Permissions, without which providers failed to return their sources */
+    public final Set<String> permissionsNeeded;
+    /** Permissions of the providers, which were not granted, when the catalog was made */
+    public final Set<String> deniedPermissions;
+
+    public EventSourcesCatalog(List<OrderedEventSource> sources, Set<String> permissionsNeeded,
+                               Set<String> deniedPermissions) {
+        this.sources = Collections.unmodifiableList(new ArrayList<>(sources));
+        this.permissionsNeeded = Collections.unmodifiableSet(new HashSet<>(permissionsNeeded));
+        this.deniedPermissions = Collections.unmodifiableSet(new HashSet<>(deniedPermissions));
+    }
+
+    /** @return null if there is no catalog, saved by this version of the application */
+    @Nullable
+    public static EventSourcesCatalog load(Context context) {
+        try {
+            JSONObject json = SettingsStorage.loadJsonFromFile(context, STORAGE_KEY);
+            if (json.optInt(KEY_FORMAT_VERSION) != FORMAT_VERSION
+                    || json.optInt(KEY_APP_VERSION_CODE, -1) != getAppVersionCode(context)) {
+                return null;
+            }
+            // Sources are ordered within each provider, as they were fetched
+            List<OrderedEventSource> sources = new ArrayList<>();
+            List<EventSource> typeSources = new ArrayList<>();
+            JSONArray jsonSources = json.getJSONArray(KEY_SOURCES);
+            for (int index = 0; index < jsonSources.length(); index++) {
+                EventSource source = EventSource.fromJson(jsonSources.optJSONObject(index));
+                if (source == EventSource.EMPTY) continue;
+
+                if (!typeSources.isEmpty() && typeSources.get(0).providerType != source.providerType) {
+                    sources.addAll(OrderedEventSource.fromSources(typeSources));
+                    typeSources.clear();
+                }
+                typeSources.add(new EventSource(source.providerType, source.getId(), source.getTitle(),
+                        source.getSummary(), source.getColor(), true));
+            }
+            sources.addAll(OrderedEventSource.fromSources(typeSources));
+            return new EventSourcesCatalog(sources, toSet(json.getJSONArray(KEY_PERMISSIONS_NEEDED)),
+                    toSet(json.getJSONArray(KEY_DENIED_PERMISSIONS)));
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Failed to load the catalog", e);
+            return null;
+        }
+    }
+
+    public void save(Context context) {
+        try {
+            JSONObject json = toJson();
+            json.put(KEY_FORMAT_VERSION, FORMAT_VERSION);
+            json.put(KEY_APP_VERSION_CODE, getAppVersionCode(context));
+            SettingsStorage.saveJson(context, STORAGE_KEY, json);
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Failed to save the catalog", e);
+        }
+    }
+
+    /** Permissions of all providers, which are not granted now */
+    @NonNull
+    public static Set<String> getDeniedPermissions(Context context) {
+        Set<String> denied = new HashSet<>();
+        for (EventProviderType type : EventProviderType.values()) {
+            if (!type.permission.isEmpty() && PermissionsUtil.isPermissionNeeded(context, type.permission)) {
+                denied.add(type.permission);
+            }
+        }
+        return denied;
+    }
+
+    /** @return true if the sources or their needed permissions differ, comparing titles and colors also */
+    public boolean hasDifferentSources(EventSourcesCatalog other) {
+        return !OrderedEventSource.toJsonString(sources).equals(OrderedEventSource.toJsonString(other.sources))
+                || !permissionsNeeded.equals(other.permissionsNeeded);
+    }
+
+    public boolean hasDifferentContent(EventSourcesCatalog other) {
+        return hasDifferentSources(other) || !deniedPermissions.equals(other.deniedPermissions);
+    }
+
+    private JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put(KEY_SOURCES, OrderedEventSource.toJsonArray(sources));
+        json.put(KEY_PERMISSIONS_NEEDED, new JSONArray(sorted(permissionsNeeded)));
+        json.put(KEY_DENIED_PERMISSIONS, new JSONArray(sorted(deniedPermissions)));
+        return json;
+    }
+
+    private static List<String> sorted(Collection<String> strings) {
+        List<String> list = new ArrayList<>(strings);
+        Collections.sort(list);
+        return list;
+    }
+
+    private static Set<String> toSet(JSONArray jsonArray) {
+        Set<String> set = new HashSet<>();
+        for (int index = 0; index < jsonArray.length(); index++) {
+            set.add(jsonArray.optString(index));
+        }
+        return set;
+    }
+
+    private static int getAppVersionCode(Context context) {
+        try {
+            return context.getPackageManager()
+                    .getPackageInfo(context.getApplicationContext().getPackageName(), 0).versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return TAG + " [" + sources.size() + " sources, permissions needed: " + permissionsNeeded
+                + ", denied: " + deniedPermissions + "]";
+    }
+}
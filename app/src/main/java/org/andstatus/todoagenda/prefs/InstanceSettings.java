@@ -115,6 +115,10 @@ public class InstanceSettings {
     private EndedSomeTimeAgo eventsEnded = EndedSomeTimeAgo.NONE;
     static final String PREF_SHOW_PAST_EVENTS_WITH_DEFAULT_COLOR = "showPastEventsWithDefaultColor";
     private boolean showPastEventsWithDefaultColor = false;
+    static final String PREF_MAX_OVERDUE_TASKS = "maxOverdueTasks";
+    /** All overdue tasks are shown by default, as before the limit was introduced */
+    static final String PREF_MAX_OVERDUE_TASKS_DEFAULT = "0";
+    private int maxOverdueTasks = Integer.valueOf(PREF_MAX_OVERDUE_TASKS_DEFAULT);
     static final String PREF_EVENT_RANGE = "eventRange";
     static final String PREF_EVENT_RANGE_DEFAULT = "30";
     private int eventRange = Integer.valueOf(PREF_EVENT_RANGE_DEFAULT);
@@ -171,6 +175,9 @@ public class InstanceSettings {
             if (json.has(PREF_EVENT_RANGE)) {
                 eventRange = json.getInt(PREF_EVENT_RANGE);
             }
+            if (json.has(PREF_MAX_OVERDUE_TASKS)) {
+                maxOverdueTasks = json.getInt(PREF_MAX_OVERDUE_TASKS);
+            }
             if (json.has(PREF_EVENTS_ENDED)) {
                 eventsEnded = EndedSomeTimeAgo.fromValue(json.getString(PREF_EVENTS_ENDED));
             }
@@ -284,6 +291,7 @@ public class InstanceSettings {
             settings.setActiveEventSources(ApplicationPreferences.getActiveEventSources(context));
             settings.eventRange = ApplicationPreferences.getEventRange(context);
             settings.eventsEnded = ApplicationPreferences.getEventsEnded(context);
+            settings.maxOverdueTasks = ApplicationPreferences.getMaxOverdueTasks(context);
             settings.fillAllDayEvents = ApplicationPreferences.getFillAllDayEvents(context);
             settings.hideBasedOnKeywords = ApplicationPreferences.getHideBasedOnKeywords(context);
             settings.widgetHeaderBackgroundColor = ApplicationPreferences.getWidgetHeaderBackgroundColor(context);
@@ -362,6 +370,7 @@ public class InstanceSettings {
             json.put(PREF_ACTIVE_SOURCES, OrderedEventSource.toJsonArray(getActiveEventSources()));
             json.put(PREF_EVENT_RANGE, eventRange);
             json.put(PREF_EVENTS_ENDED, eventsEnded.save());
+            json.put(PREF_MAX_OVERDUE_TASKS, maxOverdueTasks);
             json.put(PREF_FILL_ALL_DAY, fillAllDayEvents);
             json.put(PREF_HIDE_BASED_ON_KEYWORDS, hideBasedOnKeywords);
             json.put(PREF_WIDGET_HEADER_BACKGROUND_COLOR, widgetHeaderBackgroundColor);
@@ -438,6 +447,11 @@ public class InstanceSettings {
         return eventsEnded;
     }
 
+    /** @return 0 if the number of overdue tasks is not limited */
+    public int getMaxOverdueTasks() {
+        return maxOverdueTasks;
+    }
+
     public boolean getFillAllDayEvents() {
         return fillAllDayEvents;
     }
@@ -1,6 +1,7 @@
 package org.andstatus.todoagenda.provider;
 
 import android.content.Context;
+import android.os.CancellationSignal;
 
 import org.andstatus.todoagenda.prefs.AllSettings;
 import org.andstatus.todoagenda.prefs.EventSource;
@@ -42,6 +43,8 @@ public class EventProvider {
     protected KeywordsFilter mKeywordsFilter;
     protected DateTime mStartOfTimeRange;
     protected DateTime mEndOfTimeRange;
+    /** Cancelled when results of the current query are not needed anymore */
+    protected CancellationSignal cancellationSignal = null;
 
     public EventProvider(EventProviderType type, Context context, int widgetId) {
         this.type = type;
@@ -63,6 +66,17 @@ public class EventProvider {
                 : now.withTimeAtStartOfDay().plusDays(1);
     }
 
+    public void setCancellationSignal(CancellationSignal cancellationSignal) {
+        this.cancellationSignal = cancellationSignal;
+    }
+
+    /** @throws android.os.OperationCanceledException if the query was cancelled */
+    protected void throwIfCanceled() {
+        if (cancellationSignal != null) {
+            cancellationSignal.throwIfCanceled();
+        }
+    }
+
     @NonNull
     public InstanceSettings getSettings() {
         return AllSettings.instanceFromId(context, widgetId);
@@ -3,6 +3,7 @@ package org.andstatus.todoagenda.provider;
 import android.Manifest;
 import android.content.Context;
 import android.content.IntentFilter;
+import android.content.pm.ProviderInfo;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -10,7 +11,9 @@ import androidx.annotation.NonNull;
 import org.andstatus.todoagenda.EnvironmentChangedReceiver;
 import org.andstatus.todoagenda.calendar.CalendarEventProvider;
 import org.andstatus.todoagenda.calendar.CalendarEventVisualizer;
+import org.andstatus.todoagenda.prefs.AllSettings;
 import org.andstatus.todoagenda.prefs.EventSource;
+import org.andstatus.todoagenda.prefs.EventSourcesCatalog;
 import org.andstatus.todoagenda.prefs.OrderedEventSource;
 import org.andstatus.todoagenda.task.TaskVisualizer;
 import org.andstatus.todoagenda.task.dmfs.DmfsOpenTasksContract;
@@ -19,12 +22,15 @@ import org.andstatus.todoagenda.task.samsung.SamsungTasksProvider;
 import org.andstatus.todoagenda.widget.WidgetEntry;
 import org.andstatus.todoagenda.widget.WidgetEntryVisualizer;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /** All supported Event providers */
 public enum EventProviderType {
@@ -54,9 +60,13 @@ public enum EventProviderType {
     public final String permission;
     private final String authority;
 
-    private static List<OrderedEventSource> sources = new CopyOnWriteArrayList<>();
-    private static Set<String> permissionsNeeded = new CopyOnWriteArraySet<>();
+    private static volatile EventSourcesCatalog catalog = EventSourcesCatalog.EMPTY;
     private static volatile boolean initialized = false;
+    /** Providers send PROVIDER_CHANGED in bursts, e.g. during a sync. They are revalidated once after a burst */
+    private static final int REVALIDATION_DELAY_MILLIS = 2000;
+    private static final AtomicBoolean revalidating = new AtomicBoolean();
+    private static final Set<EventProviderType> typesToRevalidate =
+            Collections.newSetFromMap(new ConcurrentHashMap<EventProviderType, Boolean>());
 
     EventProviderType(int id, boolean isCalendar, String permission, String authority) {
         this.id = id;
@@ -65,11 +75,45 @@ public enum EventProviderType {
         this.authority = authority;
     }
 
+    /**
+     * Finds sources of all providers. Unless reInitialized, they are taken from the catalog, saved by a previous
+     * process, and are revalidated once in the background, as providers and permissions may have changed since then
+     */
     public static void initialize(Context context, boolean reInitialize) {
         if (initialized && !reInitialize) return;
 
-        sources.clear();
+        EventSourcesCatalog loaded = reInitialize ? null : EventSourcesCatalog.load(context);
+        if (loaded == null) {
+            catalog = fetchCatalog(context);
+            catalog.save(context);
+        } else {
+            Log.i(TAG, "initialize from " + loaded);
+            catalog = loaded;
+            revalidateInBackground(context.getApplicationContext(), EnumSet.allOf(EventProviderType.class));
+        }
+        initialized = true;
+    }
+
+    private static EventSourcesCatalog fetchCatalog(Context context) {
+        return fetchCatalog(context, EnumSet.allOf(EventProviderType.class), EventSourcesCatalog.EMPTY);
+    }
+
+    /** Sources of other types are taken from the previous catalog */
+    private static EventSourcesCatalog fetchCatalog(Context context, Set<EventProviderType> types,
+                                                    EventSourcesCatalog previous) {
+        Set<String> deniedPermissions = EventSourcesCatalog.getDeniedPermissions(context);
+        List<OrderedEventSource> sources = new ArrayList<>();
+        Set<String> permissionsNeeded = new HashSet<>();
         for(EventProviderType type : EventProviderType.values()) {
+            if (!types.contains(type)) {
+                for (OrderedEventSource source : previous.sources) {
+                    if (source.source.providerType == type) sources.add(source);
+                }
+                if (previous.permissionsNeeded.contains(type.permission)) {
+                    permissionsNeeded.add(type.permission);
+                }
+                continue;
+            }
             EventProvider provider = type.getEventProvider(context, 0);
             List<EventSource> ss = Collections.emptyList();
             boolean permissionNeeded = false;
@@ -89,7 +133,91 @@ public enum EventProviderType {
                 permissionsNeeded.add(type.permission);
             }
         }
-        initialized = true;
+        return new EventSourcesCatalog(sources, permissionsNeeded, deniedPermissions);
+    }
+
+    /**
+     * Sources may have changed, e.g. a calendar was added.
+     * Only the providers with this authority are revalidated. Null authority means any provider
+     */
+    public static void onProviderChanged(Context context, String authority) {
+        if (!initialized) return;
+
+        Set<EventProviderType> types = EnumSet.noneOf(EventProviderType.class);
+        for (EventProviderType type : EventProviderType.values()) {
+            if (type.authority.length() > 0 && (authority == null || type.authority.equals(authority))) {
+                types.add(type);
+            }
+        }
+        if (!types.isEmpty()) {
+            revalidateInBackground(context.getApplicationContext(), types);
+        }
+    }
+
+    /** A package was installed or updated. Providers, which it has, are revalidated */
+    public static void onPackageChanged(Context context, String packageName) {
+        if (!initialized || packageName == null) return;
+
+        Set<EventProviderType> types = EnumSet.noneOf(EventProviderType.class);
+        for (EventProviderType type : EventProviderType.values()) {
+            if (type.authority.length() == 0) continue;
+
+            ProviderInfo providerInfo = context.getPackageManager().resolveContentProvider(type.authority, 0);
+            if (providerInfo != null && packageName.equals(providerInfo.packageName)) {
+                types.add(type);
+            }
+        }
+        if (!types.isEmpty()) {
+            revalidateInBackground(context.getApplicationContext(), types);
+        }
+    }
+
+    /** Requests, which come during a revalidation, cause one more revalidation after it */
+    private static void revalidateInBackground(final Context context, Set<EventProviderType> types) {
+        typesToRevalidate.addAll(types);
+        if (!revalidating.compareAndSet(false, true)) return;
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean sourcesChanged = false;
+                do {
+                    try {
+                        EnvironmentChangedReceiver.sleep(REVALIDATION_DELAY_MILLIS);
+                        while (!typesToRevalidate.isEmpty()) {
+                            sourcesChanged |= revalidate(context, takeTypesToRevalidate());
+                        }
+                    } finally {
+                        revalidating.set(false);
+                    }
+                } while (!typesToRevalidate.isEmpty() && revalidating.compareAndSet(false, true));
+                if (sourcesChanged) {
+                    EnvironmentChangedReceiver.registerReceivers(AllSettings.getLoadedInstances());
+                    EnvironmentChangedReceiver.updateAllWidgets(context);
+                }
+            }
+        }, TAG).start();
+    }
+
+    private static Set<EventProviderType> takeTypesToRevalidate() {
+        Set<EventProviderType> types = EnumSet.noneOf(EventProviderType.class);
+        for (Iterator<EventProviderType> iterator = typesToRevalidate.iterator(); iterator.hasNext(); ) {
+            types.add(iterator.next());
+            iterator.remove();
+        }
+        return types;
+    }
+
+    /** @return true if the sources changed */
+    private static boolean revalidate(Context context, Set<EventProviderType> types) {
+        EventSourcesCatalog previous = catalog;
+        EventSourcesCatalog fetched = fetchCatalog(context, types, previous);
+        if (!fetched.hasDifferentContent(previous)) return false;
+
+        Log.i(TAG, "revalidated " + types + ", " + previous + " -> " + fetched);
+        catalog = fetched;
+        fetched.save(context);
+        return fetched.hasDifferentSources(previous);
     }
 
     @NonNull
@@ -102,16 +230,15 @@ public enum EventProviderType {
 
     @NonNull
     public static Set<String> getNeededPermissions() {
-        return permissionsNeeded;
+        return catalog.permissionsNeeded;
     }
 
     public static List<OrderedEventSource> getAvailableSources() {
-        return sources;
+        return catalog.sources;
     }
 
     public static void forget() {
-        sources.clear();
-        permissionsNeeded.clear();
+        catalog = EventSourcesCatalog.EMPTY;
         initialized = false;
     }
 
@@ -126,8 +253,12 @@ public enum EventProviderType {
             : new TaskVisualizer(eventProvider);
     }
 
+    public String getAuthority() {
+        return authority;
+    }
+
     public boolean hasEventSources() {
-        for(OrderedEventSource orderedSource: sources) {
+        for(OrderedEventSource orderedSource: catalog.sources) {
             if (orderedSource.source.providerType == this) return true;
         }
         return false;
@@ -99,6 +99,10 @@ public class QueryResult {
         return array;
     }
 
+    public EventProviderType getProviderType() {
+        return providerType;
+    }
+
     public int getWidgetId() {
         return widgetId;
     }
@@ -159,7 +159,7 @@ public class QueryRow {
 
     private final Map<String, TypedValue> mRow = new HashMap<>();
 
-    private QueryRow setColumn(String columnName, Object columnValue) {
+    public QueryRow setColumn(String columnName, Object columnValue) {
         mRow.put(columnName, new TypedValue(columnValue));
         return this;
     }
@@ -227,6 +227,10 @@ public class QueryRow {
         return values;
     }
 
+    public boolean hasColumn(String columnName) {
+        return mRow.containsKey(columnName);
+    }
+
     private Object get(String columnName) {
         if (mRow.containsKey(columnName)) {
             return mRow.get(columnName).value;
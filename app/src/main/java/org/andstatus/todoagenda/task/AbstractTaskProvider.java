@@ -2,18 +2,32 @@ package org.andstatus.todoagenda.task;
 
 import android.content.Context;
 import android.content.Intent;
+import android.database.Cursor;
+import android.util.SparseArray;
 
+import org.andstatus.todoagenda.R;
+import org.andstatus.todoagenda.prefs.OrderedEventSource;
 import org.andstatus.todoagenda.provider.EventProvider;
 import org.andstatus.todoagenda.provider.EventProviderType;
+import org.andstatus.todoagenda.provider.QueryResult;
+import org.andstatus.todoagenda.provider.QueryResultsStorage;
 import org.andstatus.todoagenda.util.DateUtil;
 import org.andstatus.todoagenda.util.PermissionsUtil;
 import org.joda.time.DateTime;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import static org.andstatus.todoagenda.util.StringUtil.notNull;
+
 public abstract class AbstractTaskProvider extends EventProvider {
 
+    /** Id of the summary of overdue tasks, which are not shown */
+    public static final long OVERDUE_SUMMARY_ID = 0;
+    /** Not read overdue tasks are counted by their titles up to this number. The rest are counted roughly */
+    private static final int MAX_NOT_READ_COUNTED = 500;
+
     protected DateTime now;
 
     public AbstractTaskProvider(EventProviderType type, Context context, int widgetId) {
@@ -39,5 +53,220 @@ public abstract class AbstractTaskProvider extends EventProvider {
 
     public abstract List<TaskEvent> queryTasks();
 
+    /** Selection of not completed tasks of the active task lists, up to the time */
+    protected abstract String getWhereClause(long endOfRangeMillis);
+
+    /**
+     * Tasks from the last snapshot of this widget's tasks, if it's still valid, or from a new query.
+     * Dates of tasks are related to today anew on each call, so periodic refreshes don't need to query
+     */
+    protected List<TaskEvent> queryTasks(TaskColumns columns) {
+        long startOfToday = now.withTimeAtStartOfDay().getMillis();
+        long endOfRange = mEndOfTimeRange.getMillis();
+        boolean needToStoreResults = QueryResultsStorage.getNeedToStoreResults();
+        TaskSnapshots.Snapshot snapshot = needToStoreResults
+                ? null
+                : TaskSnapshots.get(context, getSettings(), type, endOfRange, now.getMillis());
+        if (snapshot != null && !snapshot.isChecked() && !snapshot.check(countRows(columns, snapshot.coveredUntil))) {
+            snapshot = null;
+        }
+        if (snapshot == null) {
+            snapshot = querySnapshot(columns, startOfToday, endOfRange);
+            if (snapshot == null) {
+                return new ArrayList<>();
+            }
+            if (!needToStoreResults) {
+                TaskSnapshots.put(context, getSettings(), type, snapshot);
+            }
+        }
+        return toTasks(snapshot, startOfToday, endOfRange);
+    }
+
+    /**
+     * Reads rows of tasks up to a day after the end of the range, so the snapshot stays valid, when the range moves.
+     * Rows are recorded for "Share events for debugging" in one place for all task providers
+     */
+    private TaskSnapshots.Snapshot querySnapshot(TaskColumns columns, long startOfToday, long endOfRange) {
+        long coveredUntil = endOfRange + TaskSnapshots.RANGE_MARGIN_MILLIS;
+        String where = getWhereClause(coveredUntil);
+        String sortOrder = columns.getSortOrder(startOfToday);
+        QueryResult result = new QueryResult(type, getSettings(), columns.uri, columns.projection, where, null,
+                sortOrder);
+
+        Cursor cursor;
+        try {
+            cursor = context.getContentResolver().query(columns.uri, columns.projection, where, null, sortOrder,
+                    cancellationSignal);
+        } catch (IllegalArgumentException e) {
+            cursor = null;
+        }
+        if (cursor == null) {
+            return null;
+        }
+
+        List<TaskSnapshots.Row> rows = new ArrayList<>();
+        int notReadCount = 0;
+        int rowsCount = cursor.getCount();
+        try {
+            if (QueryResultsStorage.getNeedToStoreResults()) {
+                while (cursor.moveToNext()) {
+                    result.addRow(cursor);
+                }
+                cursor.moveToPosition(-1);
+            }
+            RowMapper mapper = newRowMapper(cursor, columns);
+            int maxOverdueTasks = getSettings().getMaxOverdueTasks();
+            int overdueCount = 0;
+            while (cursor.moveToNext()) {
+                throwIfCanceled();
+                TaskSnapshots.Row row = mapper.map(cursor);
+                if (row.getEffectiveMillis(startOfToday) < startOfToday && row.isNotAfter(endOfRange)) {
+                    if (maxOverdueTasks > 0 && overdueCount == maxOverdueTasks) {
+                        // Tasks are sorted by date descending, so all the remaining tasks are overdue
+                        notReadCount = countNotRead(cursor, mapper);
+                        break;
+                    }
+                    if (!mKeywordsFilter.matched(row.title)) {
+                        overdueCount++;
+                    }
+                }
+                rows.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        QueryResultsStorage.store(result);
+
+        return new TaskSnapshots.Snapshot(rows, notReadCount, rowsCount, coveredUntil, now.getMillis(),
+                getSettings());
+    }
+
+    /** @return number of rows, which {@link #querySnapshot} would read now, reading only ids. -1 if unknown */
+    private int countRows(TaskColumns columns, long coveredUntil) {
+        Cursor cursor;
+        try {
+            cursor = context.getContentResolver().query(columns.uri, new String[]{columns.id},
+                    getWhereClause(coveredUntil), null, null, cancellationSignal);
+        } catch (IllegalArgumentException e) {
+            cursor = null;
+        }
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return number of tasks from the current row to the end of the cursor, which are not hidden by keywords.
+     * Only titles are read. Rows after {@link #MAX_NOT_READ_COUNTED} are counted without the keywords filter
+     */
+    private int countNotRead(Cursor cursor, RowMapper mapper) {
+        int count = 0;
+        int countedRows = 0;
+        do {
+            if (countedRows++ == MAX_NOT_READ_COUNTED) {
+                return count + cursor.getCount() - cursor.getPosition();
+            }
+            if (!mKeywordsFilter.matched(notNull(cursor.getString(mapper.title)))) {
+                count++;
+            }
+        } while (cursor.moveToNext());
+        return count;
+    }
+
+    /** Tasks in the range, skipping the ones hidden by keywords or by the limit of overdue tasks */
+    private List<TaskEvent> toTasks(TaskSnapshots.Snapshot snapshot, long startOfToday, long endOfRange) {
+        SparseArray<OrderedEventSource> sources = new SparseArray<>();
+        for (OrderedEventSource orderedSource : getSettings().getActiveEventSources(type)) {
+            sources.put(orderedSource.source.getId(), orderedSource);
+        }
+        int maxOverdueTasks = getSettings().getMaxOverdueTasks();
+        int overdueCount = 0;
+        int hiddenCount = snapshot.notReadCount;
+        TaskEvent oldestOverdue = null;
+        List<TaskEvent> tasks = new ArrayList<>();
+        for (TaskSnapshots.Row row : snapshot.rows) {
+            throwIfCanceled();
+            if (!row.isNotAfter(endOfRange)) continue;
+
+            boolean overdue = row.getEffectiveMillis(startOfToday) < startOfToday;
+            if (overdue && maxOverdueTasks > 0 && overdueCount == maxOverdueTasks) {
+                hiddenCount++;
+            } else if (!mKeywordsFilter.matched(row.title)) {
+                TaskEvent task = row.toTask(zone, sources.get(row.listId, OrderedEventSource.EMPTY));
+                tasks.add(task);
+                if (overdue) {
+                    overdueCount++;
+                    oldestOverdue = task;
+                }
+            }
+        }
+        if (hiddenCount > 0 && oldestOverdue != null) {
+            tasks.add(newOverdueSummary(oldestOverdue, hiddenCount));
+        }
+        return tasks;
+    }
+
+    RowMapper newRowMapper(Cursor cursor, TaskColumns columns) {
+        return new RowMapper(cursor, columns);
+    }
+
+    /**
+     * The task, which shows the number of overdue tasks, hidden due to the
+     * {@link org.andstatus.todoagenda.prefs.InstanceSettings#getMaxOverdueTasks()} limit.
+     * It goes just before the oldest shown overdue task
+     */
+    private TaskEvent newOverdueSummary(TaskEvent oldestShown, int count) {
+        TaskEvent summary = new TaskEvent(zone);
+        summary.setEventSource(oldestShown.getEventSource());
+        summary.setId(OVERDUE_SUMMARY_ID);
+        summary.setTitle(context.getResources().getQuantityString(R.plurals.more_overdue_tasks, count, count));
+        long millis = oldestShown.getStartDate().getMillis() - 1;
+        summary.setDates(millis, millis);
+        summary.setColor(oldestShown.getColor());
+        return summary;
+    }
+
     public abstract Intent createViewEventIntent(TaskEvent event);
+
+    /** Maps rows of a cursor to rows of a snapshot. Column indices and resources are resolved once per query */
+    class RowMapper {
+        private final int listId;
+        private final int id;
+        private final int title;
+        private final int startDate;
+        private final int dueDate;
+        private final int color;
+        private final int[] fallbackColors;
+
+        RowMapper(Cursor cursor, TaskColumns columns) {
+            listId = cursor.getColumnIndex(columns.listId);
+            id = cursor.getColumnIndex(columns.id);
+            title = cursor.getColumnIndex(columns.title);
+            startDate = columns.startDate == null ? -1 : cursor.getColumnIndex(columns.startDate);
+            dueDate = cursor.getColumnIndex(columns.dueDate);
+            color = cursor.getColumnIndex(columns.color);
+            fallbackColors = columns.fallbackColorsResId == 0
+                    ? null
+                    : context.getResources().getIntArray(columns.fallbackColorsResId);
+        }
+
+        TaskSnapshots.Row map(Cursor cursor) {
+            int taskListId = cursor.getInt(listId);
+            return new TaskSnapshots.Row(taskListId, cursor.getLong(id), cursor.getString(title),
+                    getLongOrNull(cursor, startDate), getLongOrNull(cursor, dueDate),
+                    fallbackColors != null && cursor.isNull(color)
+                            ? fallbackColors[taskListId % fallbackColors.length]
+                            : getAsOpaque(cursor.getInt(color)));
+        }
+
+        private Long getLongOrNull(Cursor cursor, int columnIndex) {
+            return columnIndex < 0 || cursor.isNull(columnIndex) ? null : cursor.getLong(columnIndex);
+        }
+    }
 }
@@ -0,0 +1,54 @@
+package org.andstatus.todoagenda.task;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Declares, how rows of a tasks provider are mapped to {@link TaskEvent}s.
+ * Columns, which the provider doesn't have, are null.
+ */
+public class TaskColumns {
+    final Uri uri;
+    final String listId;
+    final String id;
+    final String title;
+    final String startDate;
+    final String dueDate;
+    final String color;
+    /** Colors of task lists, used when a row has no color. 0 if not needed */
+    final int fallbackColorsResId;
+    final String[] projection;
+
+    public TaskColumns(Uri uri, String listId, String id, String title, String startDate, String dueDate,
+                       String color, int fallbackColorsResId) {
+        this.uri = uri;
+        this.listId = listId;
+        this.id = id;
+        this.title = title;
+        this.startDate = startDate;
+        this.dueDate = dueDate;
+        this.color = color;
+        this.fallbackColorsResId = fallbackColorsResId;
+        List<String> columns = new ArrayList<>();
+        for (String column : new String[]{listId, id, title, startDate, dueDate, color}) {
+            if (column != null) {
+                columns.add(column);
+            }
+        }
+        projection = columns.toArray(new String[0]);
+    }
+
+    /**
+     * Newest tasks first, so overdue tasks over the limit are at the end.
+     * Effective date of a task is its start date, due date or today, see {@link TaskEvent#setDates}
+     */
+    String getSortOrder(long startOfToday) {
+        StringBuilder builder = new StringBuilder("COALESCE(");
+        if (startDate != null) {
+            builder.append(startDate).append(", ");
+        }
+        return builder.append(dueDate).append(", ").append(startOfToday).append(") DESC").toString();
+    }
+}
@@ -3,6 +3,7 @@ package org.andstatus.todoagenda.task;
 import org.andstatus.todoagenda.prefs.OrderedEventSource;
 import org.andstatus.todoagenda.util.DateUtil;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
 import org.joda.time.DateTimeZone;
 
 import static org.andstatus.todoagenda.util.StringUtil.notNull;
@@ -13,8 +14,9 @@ public class TaskEvent {
     private long id;
     private String title = "";
     private final DateTimeZone zone;
-    private DateTime startDate;
-    private DateTime dueDate;
+    /** Dates are kept as millis, DateTime views are created on access */
+    private long startMillis;
+    private long dueMillis;
     private int color;
 
     public TaskEvent(DateTimeZone zone) {
@@ -47,11 +49,19 @@ public class TaskEvent {
     }
 
     public DateTime getStartDate() {
-        return startDate;
+        return new DateTime(startMillis, zone);
+    }
+
+    public long getStartMillis() {
+        return startMillis;
     }
 
     public DateTime getDueDate() {
-        return dueDate;
+        return new DateTime(dueMillis, zone);
+    }
+
+    public long getDueMillis() {
+        return dueMillis;
     }
 
     public int getColor() {
@@ -63,30 +73,25 @@ public class TaskEvent {
     }
 
     public void setDates(Long startMillis, Long dueMillis) {
-        startDate = toStartDate(startMillis, dueMillis);
-        dueDate = toDueDate(startMillis, dueMillis);
+        this.startMillis = toStartMillis(startMillis, dueMillis);
+        this.dueMillis = toDueMillis(startMillis, dueMillis);
     }
 
-    private DateTime toStartDate(Long startMillis, Long dueMillis) {
-        DateTime startDate;
+    private long toStartMillis(Long startMillis, Long dueMillis) {
         if (startMillis != null) {
-            startDate = new DateTime(startMillis, zone);
-        } else {
-            if (dueMillis != null) {
-                startDate = new DateTime(dueMillis, zone);
-            } else {
-                startDate = DateUtil.now(zone).withTimeAtStartOfDay();
-            }
+            return startMillis;
         }
-        return startDate;
+        return dueMillis == null
+                ? DateUtil.now(zone).withTimeAtStartOfDay().getMillis()
+                : dueMillis;
     }
 
-    private DateTime toDueDate(Long startMillis, Long dueMillis) {
-        DateTime dueDate = dueMillis == null
-                ? DateUtil.startOfTomorrow(zone)
-                : new DateTime(dueMillis, zone);
+    private long toDueMillis(Long startMillis, Long dueMillis) {
+        long due = dueMillis == null
+                ? DateUtil.startOfTomorrow(zone).getMillis()
+                : dueMillis;
         return startMillis == null
-                ? dueDate.plusSeconds(1)
-                : dueDate;
+                ? due + DateTimeConstants.MILLIS_PER_SECOND
+                : due;
     }
 }
@@ -0,0 +1,297 @@
+package org.andstatus.todoagenda.task;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.andstatus.todoagenda.prefs.AllSettings;
+import org.andstatus.todoagenda.prefs.InstanceSettings;
+import org.andstatus.todoagenda.prefs.OrderedEventSource;
+import org.andstatus.todoagenda.prefs.SettingsStorage;
+import org.andstatus.todoagenda.provider.EventProviderType;
+import org.joda.time.DateTimeZone;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The last rows of tasks, read by each widget from each task provider, in memory and in a file,
+ * so periodic refreshes and a restart of the process don't query the provider again.
+ * Tasks are created from the rows anew on each refresh, so their dates, related to today, are up to date.
+ * A change in the provider, e.g. PROVIDER_CHANGED for its authority, invalidates its snapshots.
+ * Changes are broadcasted to the receivers, registered at runtime, so a snapshot from a file, saved by
+ * an earlier process, is used only after a count of the provider's rows matches the snapshot, see {@link Snapshot#isChecked()}.
+ * Snapshots of a widget are deleted together with the widget. Files are deleted in the background.
+ */
+public class TaskSnapshots {
+    private static final String TAG = TaskSnapshots.class.getSimpleName();
+    /** In case a change in tasks was not broadcasted */
+    static final long MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /** Tasks are read a bit beyond the end of the date range, so the range can move forward without a query */
+    static final long RANGE_MARGIN_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+    /** Files of these snapshots are not loaded, as they are being deleted */
+    private static final Set<String> filesToDelete = ConcurrentHashMap.newKeySet();
+    private static final AtomicBoolean deletingFiles = new AtomicBoolean();
+
+    private TaskSnapshots() {
+        // Empty
+    }
+
+    /** Task, as it was read from a tasks provider */
+    static final class Row {
+        final int listId;
+        final long id;
+        final String title;
+        final Long startMillis;
+        final Long dueMillis;
+        final int color;
+
+        Row(int listId, long id, String title, Long startMillis, Long dueMillis, int color) {
+            this.listId = listId;
+            this.id = id;
+            this.title = title;
+            this.startMillis = startMillis;
+            this.dueMillis = dueMillis;
+            this.color = color;
+        }
+
+        /** Effective date of a task is its start date, due date or today, see {@link TaskEvent#setDates} */
+        long getEffectiveMillis(long startOfToday) {
+            return startMillis != null ? startMillis : (dueMillis != null ? dueMillis : startOfToday);
+        }
+
+        TaskEvent toTask(DateTimeZone zone, OrderedEventSource source) {
+            TaskEvent task = new TaskEvent(zone);
+            task.setEventSource(source);
+            task.setId(id);
+            task.setTitle(title);
+            task.setDates(startMillis, dueMillis);
+            task.setColor(color);
+            return task;
+        }
+
+        /** The same condition, as in where clauses of the task providers */
+        boolean isNotAfter(long endOfRangeMillis) {
+            return dueMillis == null
+                    ? startMillis == null || startMillis <= endOfRangeMillis
+                    : dueMillis <= endOfRangeMillis;
+        }
+
+        private JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("l", listId);
+            json.put("i", id);
+            json.put("t", title);
+            if (startMillis != null) json.put("s", startMillis);
+            if (dueMillis != null) json.put("d", dueMillis);
+            json.put("c", color);
+            return json;
+        }
+
+        private static Row fromJson(JSONObject json) throws JSONException {
+            return new Row(json.getInt("l"), json.getLong("i"), json.getString("t"),
+                    json.has("s") ? json.getLong("s") : null,
+                    json.has("d") ? json.getLong("d") : null,
+                    json.getInt("c"));
+        }
+    }
+
+    /** Rows of one query, sorted by effective date, newest first */
+    static final class Snapshot {
+        final List<Row> rows;
+        /** Overdue tasks over the limit, which were not read */
+        final int notReadCount;
+        /** Number of rows, which the query returned, including not read ones. -1 if not known */
+        final int rowsCount;
+        /** The rows include all tasks up to this time */
+        final long coveredUntil;
+        final long loadedAt;
+        private final String settingsKey;
+        private volatile InstanceSettings settings;
+        private volatile boolean checked;
+
+        Snapshot(List<Row> rows, int notReadCount, int rowsCount, long coveredUntil, long loadedAt,
+                 InstanceSettings settings) {
+            this(rows, notReadCount, rowsCount, coveredUntil, loadedAt, settingsKeyOf(settings));
+            this.settings = settings;
+            checked = true;
+        }
+
+        private Snapshot(List<Row> rows, int notReadCount, int rowsCount, long coveredUntil, long loadedAt,
+                         String settingsKey) {
+            this.rows = Collections.unmodifiableList(rows);
+            this.notReadCount = notReadCount;
+            this.rowsCount = rowsCount;
+            this.coveredUntil = coveredUntil;
+            this.loadedAt = loadedAt;
+            this.settingsKey = settingsKey;
+        }
+
+        boolean isValid(InstanceSettings settings, long endOfRangeMillis, long nowMillis) {
+            if (nowMillis - loadedAt > MAX_AGE_MILLIS || nowMillis < loadedAt || endOfRangeMillis > coveredUntil) {
+                return false;
+            }
+            if (this.settings == settings) return true;
+
+            // Loaded from a file: the same settings are saved anew, when the process starts
+            if (settingsKey.equals(settingsKeyOf(settings))) {
+                this.settings = settings;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * A snapshot, queried by this process, is up to date, as long as no change is broadcasted.
+         * A snapshot from a file is checked against the provider once
+         */
+        boolean isChecked() {
+            return checked;
+        }
+
+        /** @return true if the provider still has the same number of rows, so the snapshot may be used */
+        boolean check(int rowsCountNow) {
+            if (rowsCount < 0 || rowsCount != rowsCountNow) return false;
+
+            checked = true;
+            return true;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONArray jsonRows = new JSONArray();
+            for (Row row : rows) {
+                jsonRows.put(row.toJson());
+            }
+            JSONObject json = new JSONObject();
+            json.put("rows", jsonRows);
+            json.put("notReadCount", notReadCount);
+            json.put("rowsCount", rowsCount);
+            json.put("coveredUntil", coveredUntil);
+            json.put("loadedAt", loadedAt);
+            json.put("settingsKey", settingsKey);
+            return json;
+        }
+
+        static Snapshot fromJson(JSONObject json) throws JSONException {
+            JSONArray jsonRows = json.getJSONArray("rows");
+            List<Row> rows = new ArrayList<>(jsonRows.length());
+            for (int ind = 0; ind < jsonRows.length(); ind++) {
+                rows.add(Row.fromJson(jsonRows.getJSONObject(ind)));
+            }
+            return new Snapshot(rows, json.getInt("notReadCount"), json.optInt("rowsCount", -1),
+                    json.getLong("coveredUntil"),
+                    json.getLong("loadedAt"), json.getString("settingsKey"));
+        }
+    }
+
+    /** @return null if there is no valid snapshot */
+    static Snapshot get(Context context, InstanceSettings settings, EventProviderType type, long endOfRangeMillis,
+                        long nowMillis) {
+        String key = keyOf(settings.getWidgetId(), type);
+        Snapshot snapshot = snapshots.get(key);
+        if (snapshot == null && !filesToDelete.contains(key)) {
+            snapshot = loadFromFile(context, key);
+        }
+        if (snapshot == null || !snapshot.isValid(settings, endOfRangeMillis, nowMillis)) return null;
+
+        snapshots.put(key, snapshot);
+        return snapshot;
+    }
+
+    static void put(Context context, InstanceSettings settings, EventProviderType type, Snapshot snapshot) {
+        String key = keyOf(settings.getWidgetId(), type);
+        snapshots.put(key, snapshot);
+        filesToDelete.remove(key);
+        try {
+            SettingsStorage.saveJson(context, key, snapshot.toJson());
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Failed to save " + key, e);
+        }
+    }
+
+    private static Snapshot loadFromFile(Context context, String key) {
+        try {
+            JSONObject json = SettingsStorage.loadJsonFromFile(context, key);
+            return json.has("rows") ? Snapshot.fromJson(json) : null;
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Failed to load " + key, e);
+            return null;
+        }
+    }
+
+    /** Tasks of the providers with this authority have changed. Null authority means any provider */
+    public static void onProviderChanged(Context context, String authority) {
+        for (EventProviderType type : EventProviderType.values()) {
+            if (!type.isCalendar && (authority == null || type.getAuthority().equals(authority))) {
+                invalidate(context, type);
+            }
+        }
+    }
+
+    private static void invalidate(Context context, EventProviderType type) {
+        for (int widgetId : AllSettings.getInstances(context).keySet()) {
+            delete(context, keyOf(widgetId, type));
+        }
+    }
+
+    /** Drops snapshots of all widgets, e.g. when the time zone has changed */
+    public static void invalidateAll(Context context) {
+        onProviderChanged(context, null);
+        snapshots.clear();
+    }
+
+    public static void onWidgetDeleted(Context context, int widgetId) {
+        for (EventProviderType type : EventProviderType.values()) {
+            if (!type.isCalendar) {
+                delete(context, keyOf(widgetId, type));
+            }
+        }
+    }
+
+    private static void delete(Context context, String key) {
+        snapshots.remove(key);
+        filesToDelete.add(key);
+        deleteFilesInBackground(context.getApplicationContext());
+    }
+
+    /** Snapshots are invalidated in {@link android.content.BroadcastReceiver#onReceive}, so files are not deleted there */
+    private static void deleteFilesInBackground(final Context context) {
+        if (!deletingFiles.compareAndSet(false, true)) return;
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                do {
+                    try {
+                        for (Iterator<String> iterator = filesToDelete.iterator(); iterator.hasNext(); ) {
+                            SettingsStorage.delete(context, iterator.next());
+                            iterator.remove();
+                        }
+                    } finally {
+                        deletingFiles.set(false);
+                    }
+                } while (!filesToDelete.isEmpty() && deletingFiles.compareAndSet(false, true));
+            }
+        }, TAG).start();
+    }
+
+    private static String keyOf(int widgetId, EventProviderType type) {
+        return "taskSnapshot" + widgetId + "_" + type.id;
+    }
+
+    private static String settingsKeyOf(InstanceSettings settings) {
+        return Integer.toHexString(settings.toJson().toString().hashCode());
+    }
+}
@@ -13,6 +13,7 @@ import org.andstatus.todoagenda.widget.WidgetEntry;
 import org.andstatus.todoagenda.widget.WidgetEntryVisualizer;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static org.andstatus.todoagenda.util.RemoteViewsUtil.setBackgroundColor;
@@ -105,6 +106,7 @@ public class TaskVisualizer extends WidgetEntryVisualizer<TaskEntry> {
         for (TaskEvent event : events) {
             entries.add(TaskEntry.fromEvent(event));
         }
+        Collections.sort(entries);
         return entries;
     }
 
@@ -4,15 +4,13 @@ import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
-import android.net.Uri;
 import android.text.TextUtils;
 
 import org.andstatus.todoagenda.prefs.EventSource;
 import org.andstatus.todoagenda.prefs.OrderedEventSource;
 import org.andstatus.todoagenda.provider.EventProviderType;
-import org.andstatus.todoagenda.provider.QueryResult;
-import org.andstatus.todoagenda.provider.QueryResultsStorage;
 import org.andstatus.todoagenda.task.AbstractTaskProvider;
+import org.andstatus.todoagenda.task.TaskColumns;
 import org.andstatus.todoagenda.task.TaskEvent;
 import org.andstatus.todoagenda.util.CalendarIntentUtil;
 
@@ -22,6 +20,14 @@ import java.util.List;
 import java.util.Set;
 
 public class DmfsOpenTasksProvider extends AbstractTaskProvider {
+    private static final TaskColumns COLUMNS = new TaskColumns(DmfsOpenTasksContract.Tasks.PROVIDER_URI,
+            DmfsOpenTasksContract.Tasks.COLUMN_LIST_ID,
+            DmfsOpenTasksContract.Tasks.COLUMN_ID,
+            DmfsOpenTasksContract.Tasks.COLUMN_TITLE,
+            DmfsOpenTasksContract.Tasks.COLUMN_START_DATE,
+            DmfsOpenTasksContract.Tasks.COLUMN_DUE_DATE,
+            DmfsOpenTasksContract.Tasks.COLUMN_COLOR,
+            0);
 
     public DmfsOpenTasksProvider(EventProviderType type, Context context, int widgetId) {
         super(type, context, widgetId);
@@ -29,51 +35,11 @@ public class DmfsOpenTasksProvider extends AbstractTaskProvider {
 
     @Override
     public List<TaskEvent> queryTasks() {
-        Uri uri = DmfsOpenTasksContract.Tasks.PROVIDER_URI;
-        String[] projection = {
-                DmfsOpenTasksContract.Tasks.COLUMN_LIST_ID,
-                DmfsOpenTasksContract.Tasks.COLUMN_ID,
-                DmfsOpenTasksContract.Tasks.COLUMN_TITLE,
-                DmfsOpenTasksContract.Tasks.COLUMN_DUE_DATE,
-                DmfsOpenTasksContract.Tasks.COLUMN_START_DATE,
-                DmfsOpenTasksContract.Tasks.COLUMN_COLOR,
-        };
-        String where = getWhereClause();
-
-        QueryResult result = new QueryResult(type, getSettings(), uri, projection, where, null, null);
-
-        Cursor cursor;
-        try {
-            cursor = context.getContentResolver().query(uri, projection, where, null, null);
-        } catch (IllegalArgumentException e) {
-            cursor = null;
-        }
-        if (cursor == null) {
-            return new ArrayList<>();
-        }
-
-        List<TaskEvent> tasks = new ArrayList<>();
-        try {
-            while (cursor.moveToNext()) {
-                if (QueryResultsStorage.getNeedToStoreResults()) {
-                    result.addRow(cursor);
-                }
-
-                TaskEvent task = createTask(cursor);
-                if (!mKeywordsFilter.matched(task.getTitle())) {
-                    tasks.add(task);
-                }
-            }
-        } finally {
-            cursor.close();
-        }
-
-        QueryResultsStorage.store(result);
-
-        return tasks;
+        return queryTasks(COLUMNS);
     }
 
-    private String getWhereClause() {
+    @Override
+    protected String getWhereClause(long endOfRangeMillis) {
         StringBuilder whereBuilder = new StringBuilder();
 
         whereBuilder.append(DmfsOpenTasksContract.Tasks.COLUMN_STATUS).append(NOT_EQUALS)
@@ -81,12 +47,12 @@ public class DmfsOpenTasksProvider extends AbstractTaskProvider {
 
         // @formatter:off
         whereBuilder.append(AND_BRACKET)
-        .append(DmfsOpenTasksContract.Tasks.COLUMN_DUE_DATE).append(LTE).append(mEndOfTimeRange.getMillis())
+        .append(DmfsOpenTasksContract.Tasks.COLUMN_DUE_DATE).append(LTE).append(endOfRangeMillis)
         .append(OR)
             .append(OPEN_BRACKET)
                 .append(DmfsOpenTasksContract.Tasks.COLUMN_DUE_DATE).append(IS_NULL)
                 .append(AND_BRACKET)
-                    .append(DmfsOpenTasksContract.Tasks.COLUMN_START_DATE).append(LTE).append(mEndOfTimeRange.getMillis())
+                    .append(DmfsOpenTasksContract.Tasks.COLUMN_START_DATE).append(LTE).append(endOfRangeMillis)
                     .append(OR)
                     .append(DmfsOpenTasksContract.Tasks.COLUMN_START_DATE).append(IS_NULL)
                 .append(CLOSING_BRACKET)
@@ -109,32 +75,6 @@ public class DmfsOpenTasksProvider extends AbstractTaskProvider {
         return whereBuilder.toString();
     }
 
-    private TaskEvent createTask(Cursor cursor) {
-        OrderedEventSource source = getSettings()
-                .getActiveEventSource(type,
-                        cursor.getInt(cursor.getColumnIndex(DmfsOpenTasksContract.Tasks.COLUMN_LIST_ID)));
-        TaskEvent task = new TaskEvent(zone);
-        task.setEventSource(source);
-        task.setId(cursor.getLong(cursor.getColumnIndex(DmfsOpenTasksContract.Tasks.COLUMN_ID)));
-        task.setTitle(cursor.getString(cursor.getColumnIndex(DmfsOpenTasksContract.Tasks.COLUMN_TITLE)));
-
-        int dueDateIdx = cursor.getColumnIndex(DmfsOpenTasksContract.Tasks.COLUMN_DUE_DATE);
-        Long dueMillis = null;
-        if (!cursor.isNull(dueDateIdx)) {
-            dueMillis = cursor.getLong(dueDateIdx);
-        }
-        int startDateIdx = cursor.getColumnIndex(DmfsOpenTasksContract.Tasks.COLUMN_START_DATE);
-        Long startMillis = null;
-        if (!cursor.isNull(startDateIdx)) {
-            startMillis = cursor.getLong(startDateIdx);
-        }
-        task.setDates(startMillis, dueMillis);
-
-        task.setColor(getAsOpaque(cursor.getInt(cursor.getColumnIndex(DmfsOpenTasksContract.Tasks.COLUMN_COLOR))));
-
-        return task;
-    }
-
     @Override
     public List<EventSource> fetchAvailableSources() {
         ArrayList<EventSource> eventSources = new ArrayList<>();
@@ -175,7 +115,9 @@ public class DmfsOpenTasksProvider extends AbstractTaskProvider {
     @Override
     public Intent createViewEventIntent(TaskEvent event) {
         Intent intent = CalendarIntentUtil.createViewIntent();
-        intent.setData(ContentUris.withAppendedId(DmfsOpenTasksContract.Tasks.PROVIDER_URI, event.getId()));
+        intent.setData(event.getId() == OVERDUE_SUMMARY_ID
+                ? DmfsOpenTasksContract.Tasks.PROVIDER_URI
+                : ContentUris.withAppendedId(DmfsOpenTasksContract.Tasks.PROVIDER_URI, event.getId()));
         return intent;
     }
 }
@@ -4,7 +4,6 @@ import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
-import android.net.Uri;
 import android.provider.CalendarContract;
 import android.text.TextUtils;
 import android.util.Log;
@@ -13,9 +12,8 @@ import org.andstatus.todoagenda.R;
 import org.andstatus.todoagenda.prefs.EventSource;
 import org.andstatus.todoagenda.prefs.OrderedEventSource;
 import org.andstatus.todoagenda.provider.EventProviderType;
-import org.andstatus.todoagenda.provider.QueryResult;
-import org.andstatus.todoagenda.provider.QueryResultsStorage;
 import org.andstatus.todoagenda.task.AbstractTaskProvider;
+import org.andstatus.todoagenda.task.TaskColumns;
 import org.andstatus.todoagenda.task.TaskEvent;
 import org.andstatus.todoagenda.util.CalendarIntentUtil;
 
@@ -26,6 +24,14 @@ import java.util.Set;
 
 public class SamsungTasksProvider extends AbstractTaskProvider {
     private static final String TAG = SamsungTasksProvider.class.getSimpleName();
+    private static final TaskColumns COLUMNS = new TaskColumns(SamsungTasksContract.Tasks.PROVIDER_URI,
+            SamsungTasksContract.Tasks.COLUMN_LIST_ID,
+            SamsungTasksContract.Tasks.COLUMN_ID,
+            SamsungTasksContract.Tasks.COLUMN_TITLE,
+            null,
+            SamsungTasksContract.Tasks.COLUMN_DUE_DATE,
+            SamsungTasksContract.Tasks.COLUMN_COLOR,
+            R.array.task_list_colors);
 
     public SamsungTasksProvider(EventProviderType type, Context context, int widgetId) {
         super(type, context, widgetId);
@@ -33,56 +39,17 @@ public class SamsungTasksProvider extends AbstractTaskProvider {
 
     @Override
     public List<TaskEvent> queryTasks() {
-        Uri uri = SamsungTasksContract.Tasks.PROVIDER_URI;
-        String[] projection = {
-                SamsungTasksContract.Tasks.COLUMN_ID,
-                SamsungTasksContract.Tasks.COLUMN_TITLE,
-                SamsungTasksContract.Tasks.COLUMN_DUE_DATE,
-                SamsungTasksContract.Tasks.COLUMN_COLOR,
-                SamsungTasksContract.Tasks.COLUMN_LIST_ID,
-        };
-        String where = getWhereClause();
-
-        QueryResult result = new QueryResult(type, getSettings(), uri, projection, where, null, null);
-
-        Cursor cursor;
-        try {
-            cursor = context.getContentResolver().query(uri, projection, where, null, null);
-        } catch (IllegalArgumentException e) {
-            cursor = null;
-        }
-        if (cursor == null) {
-            return new ArrayList<>();
-        }
-
-        List<TaskEvent> tasks = new ArrayList<>();
-        try {
-            while (cursor.moveToNext()) {
-                if (QueryResultsStorage.getNeedToStoreResults()) {
-                    result.addRow(cursor);
-                }
-
-                TaskEvent task = createTask(cursor);
-                if (!mKeywordsFilter.matched(task.getTitle())) {
-                    tasks.add(task);
-                }
-            }
-        } finally {
-            cursor.close();
-        }
-
-        QueryResultsStorage.store(result);
-
-        return tasks;
+        return queryTasks(COLUMNS);
     }
 
-    private String getWhereClause() {
+    @Override
+    protected String getWhereClause(long endOfRangeMillis) {
         StringBuilder whereBuilder = new StringBuilder();
         whereBuilder.append(SamsungTasksContract.Tasks.COLUMN_COMPLETE).append(EQUALS).append("0");
         whereBuilder.append(AND).append(SamsungTasksContract.Tasks.COLUMN_DELETED).append(EQUALS).append("0");
 
         whereBuilder.append(AND_BRACKET)
-                .append(SamsungTasksContract.Tasks.COLUMN_DUE_DATE).append(LTE).append(mEndOfTimeRange.getMillis())
+                .append(SamsungTasksContract.Tasks.COLUMN_DUE_DATE).append(LTE).append(endOfRangeMillis)
                 .append(OR)
                 .append(SamsungTasksContract.Tasks.COLUMN_DUE_DATE).append(IS_NULL)
                 .append(CLOSING_BRACKET);
@@ -102,28 +69,6 @@ public class SamsungTasksProvider extends AbstractTaskProvider {
         return whereBuilder.toString();
     }
 
-    private TaskEvent createTask(Cursor cursor) {
-        OrderedEventSource source = getSettings()
-                .getActiveEventSource(type,
-                        cursor.getInt(cursor.getColumnIndex(SamsungTasksContract.Tasks.COLUMN_LIST_ID)));
-        TaskEvent task = new TaskEvent(zone);
-        task.setEventSource(source);
-        task.setId(cursor.getLong(cursor.getColumnIndex(SamsungTasksContract.Tasks.COLUMN_ID)));
-        task.setTitle(cursor.getString(cursor.getColumnIndex(SamsungTasksContract.Tasks.COLUMN_TITLE)));
-
-        int dueDateIdx = cursor.getColumnIndex(SamsungTasksContract.Tasks.COLUMN_DUE_DATE);
-        Long dueMillis = null;
-        if (!cursor.isNull(dueDateIdx)) {
-            dueMillis = cursor.getLong(dueDateIdx);
-        }
-        task.setDates(null, dueMillis);
-
-        task.setColor(getColor(cursor, cursor.getColumnIndex(SamsungTasksContract.Tasks.COLUMN_COLOR),
-                cursor.getInt(cursor.getColumnIndex(SamsungTasksContract.Tasks.COLUMN_LIST_ID))));
-
-        return task;
-    }
-
     @Override
     public List<EventSource> fetchAvailableSources() {
         ArrayList<EventSource> eventSources = new ArrayList<>();
@@ -147,6 +92,7 @@ public class SamsungTasksProvider extends AbstractTaskProvider {
         }
 
         String taskListName = context.getResources().getString(R.string.task_source_samsung);
+        int[] fixedColors = context.getResources().getIntArray(R.array.task_list_colors);
         int indId = cursor.getColumnIndex(SamsungTasksContract.TaskLists.COLUMN_ID);
         int indSummary = cursor.getColumnIndex(SamsungTasksContract.TaskLists.COLUMN_NAME);
         int indColor = cursor.getColumnIndex(SamsungTasksContract.TaskLists.COLUMN_COLOR);
@@ -154,7 +100,7 @@ public class SamsungTasksProvider extends AbstractTaskProvider {
             while (cursor.moveToNext()) {
                 int id = cursor.getInt(indId);
                 EventSource eventSource = new EventSource(type, id, taskListName,
-                        cursor.getString(indSummary), getColor(cursor, indColor, id), true);
+                        cursor.getString(indSummary), getColor(cursor, indColor, id, fixedColors), true);
                 eventSources.add(eventSource);
             }
         } finally {
@@ -167,20 +113,24 @@ public class SamsungTasksProvider extends AbstractTaskProvider {
     @Override
     public Intent createViewEventIntent(TaskEvent event) {
         Intent intent = CalendarIntentUtil.createViewIntent();
-        intent.setData(ContentUris.withAppendedId(CalendarContract.Events.CONTENT_URI, event.getId()));
         intent.putExtra(SamsungTasksContract.INTENT_EXTRA_TASK, true);
+        intent.putExtra(SamsungTasksContract.INTENT_EXTRA_LAUNCH_FROM_WIDGET, true);
+        if (event.getId() == OVERDUE_SUMMARY_ID) {
+            // The summary is not a task, so the list of tasks is opened
+            intent.setData(CalendarContract.Events.CONTENT_URI);
+            return intent;
+        }
+        intent.setData(ContentUris.withAppendedId(CalendarContract.Events.CONTENT_URI, event.getId()));
         intent.putExtra(SamsungTasksContract.INTENT_EXTRA_SELECTED, event.getId());
         intent.putExtra(SamsungTasksContract.INTENT_EXTRA_ACTION_VIEW_FOCUS, 0);
         intent.putExtra(SamsungTasksContract.INTENT_EXTRA_DETAIL_MODE, true);
-        intent.putExtra(SamsungTasksContract.INTENT_EXTRA_LAUNCH_FROM_WIDGET, true);
         return intent;
     }
 
-    private int getColor(Cursor cursor, int colorIdx, int accountId) {
+    private int getColor(Cursor cursor, int colorIdx, int accountId, int[] fixedColors) {
         if (!cursor.isNull(colorIdx)) {
             return getAsOpaque(cursor.getInt(colorIdx));
         } else {
-            int[] fixedColors = context.getResources().getIntArray(R.array.task_list_colors);
             int arrayIdx = accountId % fixedColors.length;
             return fixedColors[arrayIdx];
         }
@@ -8,6 +8,7 @@ import android.util.Log;
 import org.andstatus.todoagenda.R;
 import org.andstatus.todoagenda.prefs.InstanceSettings;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
 import org.joda.time.DateTimeZone;
 
 import java.text.FieldPosition;
@@ -117,6 +118,11 @@ public class DateUtil {
         return date.plusDays(1).withTimeAtStartOfDay().minusSeconds(1);
     }
 
+    /** @return number of the local day of the instant, counted from 1970-01-01 */
+    public static int toLocalDay(DateTimeZone zone, long millis) {
+        return (int) Math.floorDiv(millis + zone.getOffset(millis), DateTimeConstants.MILLIS_PER_DAY);
+    }
+
     public static void setNow(DateTime now) {
         mNowSetAt = DateTime.now();
         mNow = now;
@@ -11,6 +11,7 @@ import org.andstatus.todoagenda.prefs.InstanceSettings;
 import org.andstatus.todoagenda.prefs.OrderedEventSource;
 import org.andstatus.todoagenda.util.DateUtil;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 
 public class CalendarEntry extends WidgetEntry<CalendarEntry> {
 
@@ -44,6 +45,7 @@ public class CalendarEntry extends WidgetEntry<CalendarEntry> {
         return title;
     }
 
+    @Override
     public int getColor() {
         return event.getColor();
     }
@@ -166,6 +168,17 @@ public class CalendarEntry extends WidgetEntry<CalendarEntry> {
         return event.getEventSource();
     }
 
+    /**
+     * The start of an entry may be moved, e.g. to today for an event, which started before,
+     * so the id is of the start of the event and of the day of the entry in it
+     */
+    @Override
+    public long getStableId() {
+        DateTimeZone zone = getStartDate().getZone();
+        int dayOffset = DateUtil.toLocalDay(zone, getStartMillis()) - DateUtil.toLocalDay(zone, event.getStartMillis());
+        return stableId(1, event.getEventId(), 31 * event.getStartMillis() + dayOffset);
+    }
+
     @Override
     public String toString() {
         return "CalendarEntry ["
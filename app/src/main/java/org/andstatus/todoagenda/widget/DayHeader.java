@@ -8,6 +8,11 @@ public class DayHeader extends WidgetEntry<DayHeader> {
         setStartDate(date.withTimeAtStartOfDay());
     }
 
+    @Override
+    public long getStableId() {
+        return stableId(3, 0, getStartMillis());
+    }
+
     @Override
     public String toString() {
         return "DayHeader [startDate=" +  getStartDate() + "]";
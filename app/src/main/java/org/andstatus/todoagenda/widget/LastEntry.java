@@ -23,7 +23,7 @@ public class LastEntry extends WidgetEntry<LastEntry> {
 
     public static void addLast(List<WidgetEntry> widgetEntries) {
         if (!widgetEntries.isEmpty()) {
-            LastEntry entry = new LastEntry(LastEntryType.LAST, widgetEntries.get(widgetEntries.size() - 1).getStartDate());
+            LastEntry entry = new LastEntry(LastEntryType.LAST, LazyEntryList.peek(widgetEntries, widgetEntries.size() - 1).getStartDate());
             widgetEntries.add(entry);
         }
     }
@@ -48,6 +48,11 @@ public class LastEntry extends WidgetEntry<LastEntry> {
         super.setStartDate(date);
     }
 
+    @Override
+    public long getStableId() {
+        return stableId(4, 0, type.ordinal());
+    }
+
     @Override
     public String toString() {
         return "LastEntry [" + type.name() + "]";
@@ -0,0 +1,19 @@
+package org.andstatus.todoagenda.widget;
+
+import java.util.List;
+
+/**
+ * List, which creates some of its entries, when they are accessed, and keeps them for the next access.
+ * {@link #peek(int)} doesn't keep the created entry, so walks over all entries, made while
+ * a widget is reloaded, don't keep an object for each row.
+ */
+public interface LazyEntryList {
+
+    /** @return the entry at this index. If it was not created yet, it is not kept by the list */
+    WidgetEntry peek(int index);
+
+    /** Entry at this index of any list, see {@link #peek(int)} */
+    static WidgetEntry peek(List<? extends WidgetEntry> list, int index) {
+        return list instanceof LazyEntryList ? ((LazyEntryList) list).peek(index) : list.get(index);
+    }
+}
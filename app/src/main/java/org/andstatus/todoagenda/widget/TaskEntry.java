@@ -24,10 +24,20 @@ public class TaskEntry extends WidgetEntry<TaskEntry> {
         return event.getTitle();
     }
 
+    @Override
+    public int getColor() {
+        return event.getColor();
+    }
+
     public TaskEvent getEvent() {
         return event;
     }
 
+    @Override
+    public long getStableId() {
+        return stableId(2, event.getEventSource().source.providerType.id, event.getId());
+    }
+
     @Override
     public String toString() {
         return "TaskEntry [startDate=" + event.getStartDate() + ", dueDate=" + event.getDueDate() + "]";
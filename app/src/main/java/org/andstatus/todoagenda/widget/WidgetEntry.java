@@ -2,21 +2,31 @@ package org.andstatus.todoagenda.widget;
 
 import org.andstatus.todoagenda.prefs.OrderedEventSource;
 import org.andstatus.todoagenda.util.DateUtil;
+import org.joda.time.Chronology;
 import org.joda.time.DateTime;
-import org.joda.time.Days;
+import org.joda.time.DateTimeZone;
 
 public abstract class WidgetEntry<T extends WidgetEntry<T>> implements Comparable<WidgetEntry<T>> {
 
-    private DateTime startDate;
-    private DateTime endDate;
+    /** Dates are kept as millis, DateTime views are created on access */
+    private long startMillis;
+    private Chronology startChronology;
+    private long endMillis;
+    private Chronology endChronology;
 
     public DateTime getStartDate() {
-        return startDate;
+        return new DateTime(startMillis, startChronology);
+    }
+
+    /** Primary sort key, precomputed to avoid DateTime comparisons while sorting */
+    public long getStartMillis() {
+        return startMillis;
     }
 
     public void setStartDate(DateTime startDate) {
-        this.startDate = startDate;
-        endDate = DateUtil.startOfNextDay(startDate);
+        startMillis = startDate.getMillis();
+        startChronology = startDate.getChronology();
+        setEndDate(DateUtil.startOfNextDay(startDate));
     }
 
     public DateTime getStartDay() {
@@ -24,11 +34,16 @@ public abstract class WidgetEntry<T extends WidgetEntry<T>> implements Comparabl
     }
 
     public void setEndDate(DateTime endDate) {
-        this.endDate = endDate;
+        endMillis = endDate.getMillis();
+        endChronology = endDate.getChronology();
     }
 
     public DateTime getEndDate() {
-        return endDate;
+        return new DateTime(endMillis, endChronology);
+    }
+
+    public long getEndMillis() {
+        return endMillis;
     }
 
     public OrderedEventSource getSource() {
@@ -43,17 +58,19 @@ public abstract class WidgetEntry<T extends WidgetEntry<T>> implements Comparabl
         return "";
     }
 
+    public int getColor() {
+        return 0;
+    }
+
     public int getDaysFromToday() {
-        return Days.daysBetween(DateUtil.now(startDate.getZone()).withTimeAtStartOfDay(),
-                startDate.withTimeAtStartOfDay()).getDays();
+        DateTimeZone zone = startChronology.getZone();
+        return DateUtil.toLocalDay(zone, startMillis) - DateUtil.toLocalDay(zone, DateUtil.now(zone).getMillis());
     }
 
     @Override
     public int compareTo(WidgetEntry other) {
-        if (getStartDate().isAfter(other.getStartDate())) {
-            return 1;
-        } else if (getStartDate().isBefore(other.getStartDate())) {
-            return -1;
+        if (startMillis != other.startMillis) {
+            return startMillis > other.startMillis ? 1 : -1;
         }
         int sourceSignum = Integer.signum(getSource().order - other.getSource().order);
         return sourceSignum == 0
@@ -62,15 +79,26 @@ public abstract class WidgetEntry<T extends WidgetEntry<T>> implements Comparabl
     }
 
     public TimeSection getStartDaySection() {
-        return DateUtil.isBeforeToday(getStartDate())
+        return getStartDaySection(DateUtil.now(startChronology.getZone()).getMillis());
+    }
+
+    /** The section at the time of nowMillis, computed without creating dates */
+    public TimeSection getStartDaySection(long nowMillis) {
+        DateTimeZone zone = startChronology.getZone();
+        int daysFromToday = DateUtil.toLocalDay(zone, startMillis) - DateUtil.toLocalDay(zone, nowMillis);
+        return daysFromToday < 0
                 ? TimeSection.PAST
-                : (DateUtil.isToday(getStartDate()) ? TimeSection.TODAY : TimeSection.FUTURE);
+                : (daysFromToday == 0 ? TimeSection.TODAY : TimeSection.FUTURE);
     }
 
     public TimeSection getEndTimeSection() {
-        return DateUtil.isBeforeNow(getEndDate())
+        return getEndTimeSection(DateUtil.now(startChronology.getZone()).getMillis());
+    }
+
+    public TimeSection getEndTimeSection(long nowMillis) {
+        return endMillis < nowMillis
                 ? TimeSection.PAST
-                : (DateUtil.isToday(getStartDate()) ? TimeSection.TODAY : TimeSection.FUTURE);
+                : (getStartDaySection(nowMillis) == TimeSection.TODAY ? TimeSection.TODAY : TimeSection.FUTURE);
     }
 
     public boolean duplicates(WidgetEntry other) {
@@ -79,4 +107,59 @@ public abstract class WidgetEntry<T extends WidgetEntry<T>> implements Comparabl
             getTitle().equals(other.getTitle()) &&
             getLocation().equals(other.getLocation());
     }
+
+    /**
+     * Id, which doesn't change between reloads for the same item,
+     * so a widget host may reuse views of unchanged items
+     */
+    public abstract long getStableId();
+
+    /** @param kind distinguishes entries of different types having the same values */
+    protected static long stableId(int kind, long value1, long value2) {
+        long hash = value1 * 0x9E3779B97F4A7C15L + value2;
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return ((long) kind << 56) ^ (hash & 0x00FFFFFFFFFFFFFFL);
+    }
+
+    /** Entries, which {@link #duplicates(WidgetEntry)} each other, have equal keys */
+    public DuplicatesKey getDuplicatesKey() {
+        return new DuplicatesKey(this);
+    }
+
+    public static final class DuplicatesKey {
+        private final long startMillis;
+        private final long endMillis;
+        private final String title;
+        private final String location;
+
+        private DuplicatesKey(WidgetEntry entry) {
+            startMillis = entry.getStartMillis();
+            endMillis = entry.getEndMillis();
+            title = entry.getTitle();
+            location = entry.getLocation();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            DuplicatesKey that = (DuplicatesKey) o;
+            return startMillis == that.startMillis &&
+                    endMillis == that.endMillis &&
+                    title.equals(that.title) &&
+                    location.equals(that.location);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (startMillis ^ (startMillis >>> 32));
+            result = 31 * result + (int) (endMillis ^ (endMillis >>> 32));
+            result = 31 * result + title.hashCode();
+            result = 31 * result + location.hashCode();
+            return result;
+        }
+    }
 }
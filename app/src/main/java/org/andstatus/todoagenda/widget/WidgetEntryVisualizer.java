@@ -1,10 +1,12 @@
 package org.andstatus.todoagenda.widget;
 
 import android.content.Context;
+import android.os.CancellationSignal;
 import android.widget.RemoteViews;
 
 import org.andstatus.todoagenda.prefs.InstanceSettings;
 import org.andstatus.todoagenda.provider.EventProvider;
+import org.andstatus.todoagenda.provider.EventProviderType;
 
 import java.util.List;
 
@@ -28,8 +30,18 @@ public abstract class WidgetEntryVisualizer<T extends WidgetEntry<T>> {
         return eventProvider.context;
     }
 
+    public EventProviderType getProviderType() {
+        return eventProvider.type;
+    }
+
     public abstract int getViewTypeCount();
 
+    /** The signal stops the next {@link #queryEventEntries()} */
+    public void setCancellationSignal(CancellationSignal cancellationSignal) {
+        eventProvider.setCancellationSignal(cancellationSignal);
+    }
+
+    /** @return entries, sorted in their natural order, see {@link WidgetEntry#compareTo(WidgetEntry)} */
     public abstract List<T> queryEventEntries();
 
 }
\ No newline at end of file